@@ -0,0 +1,356 @@
+package rubiks.benchmark;
+
+import rubiks.cube.MoveTable;
+import rubiks.sequential.Cube;
+import rubiks.sequential.CubeCache;
+import rubiks.sequential.Search;
+
+/**
+ * Microbenchmarks of the operations done for every node of the search, and
+ * an end-to-end benchmark of the sequential search in nodes per second. Run
+ * with "ant benchmark" before and after changing the cube engine.
+ *
+ * Every operation is first run until the JIT compiler is done with it, then
+ * timed in batches large enough to dwarf the cost of the timer. Results are
+ * summed into a sink, so the JIT cannot leave out the work.
+ *
+ * The twist, the solved check and the search are also run with cubes that
+ * count their misplaced stickers (see Cube.countMisplaced()), next to the
+ * ones that scan their stickers, to weigh the cheaper check against the
+ * dearer twist.
+ *
+ */
+public class Benchmarks {
+
+    private static final int MIN_SIZE = 2;
+
+    private static final int MAX_SIZE = 6;
+
+    // end-to-end cubes: size, twists and seed of each
+    private static final int[][] SEARCHES = { { 2, 12, 5 }, { 3, 11, 0 },
+            { 3, 8, 1 }, { 4, 5, 1 } };
+
+    // number of different cubes used by an operation, so the JIT cannot
+    // compute the result once for all iterations
+    private static final int CUBES = 16;
+
+    // sums the results of all operations
+    private static long sink = 0;
+
+    /**
+     * An operation to benchmark, on cubes of a single size.
+     */
+    private static abstract class Operation {
+
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Prepares the cubes for the given size.
+         */
+        abstract void setUp(int size);
+
+        /**
+         * Does the operation a number of times.
+         *
+         * @return anything depending on the results, for the sink
+         */
+        abstract long run(int times);
+    }
+
+    private static Operation[] operations() {
+        return new Operation[] { twist(false), twist(true), new Operation("copyTo") {
+            Cube from, to;
+
+            void setUp(int size) {
+                from = new Cube(size, 20, size);
+                to = new Cube(size);
+            }
+
+            long run(int times) {
+                for (int i = 0; i < times; i++) {
+                    from.setBound(i);
+                    from.copyTo(to);
+                }
+                return to.getBound();
+            }
+        }, isSolved("scrambled", false), isSolved("scrambled", true),
+                isSolved("one twist", false), isSolved("one twist", true),
+                isSolved("solved", false), isSolved("solved", true),
+                new Operation("generateChildren") {
+            Cube cube;
+            CubeCache cache;
+
+            void setUp(int size) {
+                cube = new Cube(size, 20, size);
+                cache = new CubeCache(size);
+            }
+
+            long run(int times) {
+                long twists = 0;
+                for (int i = 0; i < times; i++) {
+                    Cube[] children = cube.generateChildren(cache);
+                    twists += children[i % children.length].getTwists();
+                    for (Cube child : children) {
+                        cache.put(child);
+                    }
+                }
+                return twists;
+            }
+        }, new Operation("CubeCache get/put") {
+            CubeCache cache;
+
+            void setUp(int size) {
+                cache = new CubeCache(size);
+            }
+
+            long run(int times) {
+                long sizes = 0;
+                for (int i = 0; i < times; i++) {
+                    Cube cube = cache.get();
+                    sizes += cube.getSize();
+                    cache.put(cube);
+                }
+                return sizes;
+            }
+        } };
+    }
+
+    /**
+     * Twists a cube, counting its misplaced stickers or not (see
+     * Cube.countMisplaced()).
+     */
+    private static Operation twist(final boolean counted) {
+        return new Operation(counted ? "twist (count)" : "twist") {
+            Cube from, to;
+            int moves;
+
+            void setUp(int size) {
+                from = new Cube(size, 20, size);
+                if (counted) {
+                    from.countMisplaced();
+                }
+                to = new Cube(size);
+                moves = MoveTable.moves(size);
+            }
+
+            long run(int times) {
+                for (int i = 0; i < times; i++) {
+                    from.twist(i % moves, to);
+                    Cube swap = from;
+                    from = to;
+                    to = swap;
+                }
+                return from.getTwists();
+            }
+        };
+    }
+
+    /**
+     * Checks if cubes are solved, by scanning their stickers or comparing
+     * their count of misplaced stickers. The cubes are scrambled, one twist
+     * away from solved, the worst realistic case for the scan, or solved.
+     */
+    private static Operation isSolved(final String cubes, final boolean counted) {
+        return new Operation("isSolved " + (counted ? "count" : "scan") + " ("
+                + cubes + ")") {
+            Cube[] checked;
+
+            void setUp(int size) {
+                checked = new Cube[CUBES];
+                for (int i = 0; i < CUBES; i++) {
+                    if (cubes.equals("scrambled")) {
+                        checked[i] = new Cube(size, 20, i);
+                    } else {
+                        checked[i] = new Cube(size);
+                        if (cubes.equals("one twist")) {
+                            Cube solved = checked[i];
+                            checked[i] = new Cube(size);
+                            solved.twist(i % MoveTable.moves(size), checked[i]);
+                        }
+                    }
+                    if (counted) {
+                        checked[i].countMisplaced();
+                    }
+                }
+            }
+
+            long run(int times) {
+                return solved(checked, times);
+            }
+        };
+    }
+
+    private static long solved(Cube[] cubes, int times) {
+        long solved = 0;
+        for (int i = 0; i < times; i++) {
+            if (cubes[i % CUBES].isSolved()) {
+                solved++;
+            }
+        }
+        return solved;
+    }
+
+    public static void printUsage() {
+        System.out.println("Cube engine benchmarks");
+        System.out.println("");
+        System.out
+                .println("Times the operations done for every node of the search, and the search itself");
+        System.out.println("");
+        System.out.println("USAGE: Benchmarks [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out
+                .println("--time MILLISECONDS\t\tTime of each measurement (default: 200)");
+        System.out
+                .println("--iterations ITERATIONS\t\tMeasurements per benchmark, the best one is reported (default: 5)");
+        System.out
+                .println("--packed\t\tBenchmark packed cubes (3 bits per element)");
+        System.out
+                .println("--operations\t\tOnly run the per-node benchmarks");
+        System.out.println("--search\t\tOnly run the search benchmarks");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        long time = 200;
+        int iterations = 5;
+        boolean runOperations = true;
+        boolean runSearches = true;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--time")) {
+                i++;
+                time = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--iterations")) {
+                i++;
+                iterations = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--packed")) {
+                Cube.setPacked(true);
+            } else if (arguments[i].equalsIgnoreCase("--operations")) {
+                runSearches = false;
+            } else if (arguments[i].equalsIgnoreCase("--search")) {
+                runOperations = false;
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (runOperations) {
+            System.out.printf("%-28s", "ns/operation");
+            for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+                System.out.printf("%10s", "size " + size);
+            }
+            System.out.println();
+
+            for (Operation operation : operations()) {
+                System.out.printf("%-28s", operation.name);
+                for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+                    operation.setUp(size);
+                    System.out.printf("%10.2f", measure(operation, time,
+                            iterations));
+                }
+                System.out.println();
+            }
+            System.out.println();
+        }
+
+        if (runSearches) {
+            System.out.printf("%-28s%8s%14s%10s%14s%n", "search", "bound",
+                    "nodes", "ms", "nodes/s");
+            for (int[] search : SEARCHES) {
+                benchmarkSearch(search[0], search[1], search[2], false,
+                        iterations);
+                benchmarkSearch(search[0], search[1], search[2], true,
+                        iterations);
+            }
+        }
+
+        // keep the sink alive
+        if (sink == 42) {
+            System.err.println();
+        }
+    }
+
+    /**
+     * Times an operation, after warming it up.
+     *
+     * @return the best time per operation of all iterations, in nanoseconds
+     */
+    private static double measure(Operation operation, long time,
+            int iterations) {
+        // warm up, and find the number of operations per measurement
+        int times = 1;
+        long elapsed;
+        do {
+            times *= 2;
+            long start = System.nanoTime();
+            sink += operation.run(times);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < time * 1000000L / 4 && times < (1 << 30));
+        times = (int) Math.min(1 << 30, times * (time * 1000000L)
+                / Math.max(1, elapsed));
+
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += operation.run(times);
+            elapsed = System.nanoTime() - start;
+            best = Math.min(best, (double) elapsed / times);
+        }
+        return best;
+    }
+
+    /**
+     * Times the search of a cube at the first bound with solutions, and
+     * counts the nodes it generates (see Search.takeStatistics()). The cubes
+     * of the search count their misplaced stickers if counted is set.
+     */
+    private static void benchmarkSearch(int size, int twists, int seed,
+            boolean counted, int iterations) {
+        Cube cube = new Cube(size, twists, seed);
+        if (counted) {
+            cube.countMisplaced();
+        }
+        Search search = new Search(size, false);
+
+        // bounds before the one with solutions also warm up the search
+        int bound = 0;
+        int solutions = 0;
+        while (solutions == 0) {
+            bound++;
+            cube.setBound(bound);
+            solutions = search.solutions(cube);
+        }
+        search.takeStatistics();
+
+        long nodes = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += search.solutions(cube);
+            best = Math.min(best, System.nanoTime() - start);
+            nodes = search.takeStatistics().getNodes();
+        }
+
+        System.out.printf("%-28s%8d%14d%10.1f%14.0f%n", "size " + size
+                + " twists " + twists + " seed " + seed
+                + (counted ? " count" : ""), bound, nodes,
+                best / 1e6, nodes / (best / 1e9));
+    }
+}
@@ -0,0 +1,149 @@
+package rubiks.cube;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Admissible heuristic for the search: the maximum of a number of pattern
+ * databases. For every size the corners are used, for size 3 cubes also two
+ * sets of 6 edges.
+ *
+ */
+public final class Heuristic {
+
+    private final PatternDatabase[] databases;
+
+    private Heuristic(PatternDatabase[] databases) {
+        this.databases = databases;
+    }
+
+    /**
+     * Sets of pieces used for a cube size, as {kind, first, count}.
+     *
+     * @param size
+     *            size of the cube
+     * @return the sets of pieces to use
+     */
+    public static int[][] databases(int size) {
+        if (size == 3) {
+            return new int[][] { { PatternDatabase.CORNERS, 0, 7 },
+                    { PatternDatabase.EDGES, 0, 6 },
+                    { PatternDatabase.EDGES, 6, 6 } };
+        }
+        return new int[][] { { PatternDatabase.CORNERS, 0, 7 } };
+    }
+
+    /**
+     * Generates all pattern databases for a cube size.
+     *
+     * @param size
+     *            size of the cube
+     * @return heuristic using the generated databases
+     */
+    public static Heuristic generate(int size) {
+        int[][] sets = databases(size);
+        PatternDatabase[] databases = new PatternDatabase[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            databases[i] = PatternDatabase.generate(size, sets[i][0],
+                    sets[i][1], sets[i][2]);
+        }
+        return new Heuristic(databases);
+    }
+
+    /**
+     * Loads all pattern databases for a cube size from a directory, as
+     * written by save(). Databases are mapped, not read. Databases missing
+     * from the directory are generated, and saved in the directory if
+     * possible, so the next run can map them.
+     *
+     * @param directory
+     *            directory containing the databases
+     * @param size
+     *            size of the cube
+     * @return heuristic using the loaded databases
+     * @throws IOException
+     *             if a database could not be mapped
+     */
+    public static Heuristic load(File directory, int size) throws IOException {
+        int[][] sets = databases(size);
+        PatternDatabase[] databases = new PatternDatabase[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            File file = file(directory, size, sets[i]);
+            if (file.exists()) {
+                databases[i] = PatternDatabase.map(file);
+                if (!databases[i].getName().equals(
+                        PatternDatabase.name(size, sets[i][0], sets[i][1],
+                                sets[i][2]))) {
+                    throw new IOException(file + " contains pattern database "
+                            + databases[i].getName());
+                }
+                continue;
+            }
+
+            System.err.println("Pattern database " + file
+                    + " not found, generating it");
+            databases[i] = PatternDatabase.generate(size, sets[i][0],
+                    sets[i][1], sets[i][2]);
+            try {
+                databases[i].write(file);
+            } catch (IOException e) {
+                System.err.println("Cannot save pattern database: " + e);
+            }
+        }
+        return new Heuristic(databases);
+    }
+
+    /**
+     * Saves all pattern databases in a directory.
+     *
+     * @param directory
+     *            directory to save the databases in
+     * @throws IOException
+     *             if a database could not be written
+     */
+    public void save(File directory) throws IOException {
+        for (PatternDatabase database : databases) {
+            database.write(new File(directory, database.getName() + ".pdb"));
+        }
+    }
+
+    /**
+     * Lower bound for the number of twists needed to solve a cube.
+     *
+     * @param stickers
+     *            stickers of the cube (side * size * size + element)
+     * @param sideOfColor
+     *            side per color, see Pieces.sideOfColor
+     * @return minimum number of twists needed
+     */
+    public int estimate(byte[] stickers, byte[] sideOfColor) {
+        int result = 0;
+        for (PatternDatabase database : databases) {
+            result = Math.max(result, database.estimate(stickers, sideOfColor));
+        }
+        return result;
+    }
+
+    /**
+     * Lower bound for the number of twists needed to solve a packed cube.
+     *
+     * @param words
+     *            stickers of the cube, see PackedLayout
+     * @param sideOfColor
+     *            side per color, see Pieces.sideOfColor
+     * @return minimum number of twists needed
+     */
+    public int estimate(long[] words, byte[] sideOfColor) {
+        int result = 0;
+        for (PatternDatabase database : databases) {
+            result = Math.max(result, database.estimate(words, sideOfColor));
+        }
+        return result;
+    }
+
+    private static File file(File directory, int size, int[] set) {
+        return new File(directory, PatternDatabase.name(size, set[0], set[1],
+                set[2])
+                + ".pdb");
+    }
+}
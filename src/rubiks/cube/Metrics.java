@@ -0,0 +1,329 @@
+package rubiks.cube;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Metrics of solving a cube on one node: the statistics of the searches (see
+ * SearchStatistics) summed per node they were done on and per bound, and the
+ * wall time of every bound. Search threads hand in their statistics after
+ * every job or bound, so the searches themselves only touch their own
+ * counters.
+ *
+ * At the end, a summary is printed (to standard error, so standard out stays
+ * comparable with "diff"). The metrics can also be exported to a file, as CSV
+ * if its name ends in ".csv" and JSON otherwise, at the end and periodically
+ * while solving.
+ *
+ * All methods are thread safe.
+ *
+ */
+public final class Metrics {
+
+    /**
+     * Name the statistics of the node itself are kept under.
+     */
+    public static final String LOCAL = "local";
+
+    private static final String CSV_HEADER = "scope,name,milliseconds,nodes,leaves,pruned,hits,"
+            + "jobs,job_milliseconds,max_job_milliseconds,"
+            + "steals,steal_milliseconds,max_steal_milliseconds";
+
+    private final long start = System.nanoTime();
+
+    // set by stop(), 0 while solving
+    private long end = 0;
+
+    private final SearchStatistics total = new SearchStatistics();
+
+    // statistics since the end of the previous bound
+    private final SearchStatistics current = new SearchStatistics();
+
+    private final List<Bound> bounds = new ArrayList<Bound>();
+
+    private final Map<String, SearchStatistics> nodes = new LinkedHashMap<String, SearchStatistics>();
+
+    private Timer timer = null;
+
+    /**
+     * Statistics and wall time of a single bound.
+     */
+    private static final class Bound {
+
+        final int bound;
+
+        final long nanos;
+
+        final SearchStatistics statistics;
+
+        Bound(int bound, long nanos, SearchStatistics statistics) {
+            this.bound = bound;
+            this.nanos = nanos;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * Adds the statistics of searches done on this node.
+     *
+     * @param statistics
+     *            statistics to add
+     */
+    public void add(SearchStatistics statistics) {
+        add(LOCAL, statistics);
+    }
+
+    /**
+     * Adds the statistics of searches done on a node.
+     *
+     * @param node
+     *            name of the node
+     * @param statistics
+     *            statistics to add
+     */
+    public synchronized void add(String node, SearchStatistics statistics) {
+        total.add(statistics);
+        current.add(statistics);
+        node(node).add(statistics);
+    }
+
+    /**
+     * Adds a job request of a node that has been answered.
+     *
+     * @param node
+     *            name of the node asking for jobs
+     * @param nanos
+     *            time from request to reply, in nanoseconds
+     */
+    public synchronized void addSteal(String node, long nanos) {
+        total.addSteal(nanos);
+        current.addSteal(nanos);
+        node(node).addSteal(nanos);
+    }
+
+    /**
+     * Ends a bound. Statistics added since the previous bound are counted
+     * for this one.
+     *
+     * @param bound
+     *            the bound
+     * @param nanos
+     *            wall time of the bound, in nanoseconds
+     */
+    public synchronized void boundDone(int bound, long nanos) {
+        bounds.add(new Bound(bound, nanos, current.take()));
+    }
+
+    /**
+     * Exports the metrics to a file every given number of milliseconds, until
+     * stop() is called.
+     *
+     * @param file
+     *            file to export to, see export()
+     * @param millis
+     *            time between exports
+     */
+    public synchronized void exportEvery(final File file, long millis) {
+        timer = new Timer("metrics", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                try {
+                    export(file);
+                } catch (IOException e) {
+                    System.err.println("Cannot export metrics: " + e);
+                }
+            }
+        }, millis, millis);
+    }
+
+    /**
+     * Stops the clock of the run, and the periodic exports.
+     */
+    public synchronized void stop() {
+        end = System.nanoTime();
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Prints a summary: the totals, every bound, and every node that searched
+     * jobs.
+     *
+     * @param out
+     *            stream to print to
+     */
+    public synchronized void print(PrintStream out) {
+        long nanos = elapsed();
+        out.printf(Locale.ROOT,
+                "Searched %d nodes in %.0f ms (%.0f nodes/s): %d leaves, "
+                        + "%d pruned, %d transposition hits%n", total
+                        .getNodes(), nanos / 1e6, perSecond(total.getNodes(),
+                        nanos), total.getLeaves(), total.getPruned(), total
+                        .getHits());
+        for (Bound bound : bounds) {
+            out.printf(Locale.ROOT, "Bound %d: %.1f ms, %d nodes (%.0f nodes/s)%n",
+                    bound.bound, bound.nanos / 1e6, bound.statistics
+                            .getNodes(), perSecond(bound.statistics.getNodes(),
+                            bound.nanos));
+        }
+        for (Map.Entry<String, SearchStatistics> entry : nodes.entrySet()) {
+            SearchStatistics node = entry.getValue();
+            if (node.getJobs() == 0 && node.getSteals() == 0) {
+                continue;
+            }
+            out.printf(Locale.ROOT, "Node %s: %d nodes, %d jobs (%.1f ms "
+                    + "average, %.1f ms max), %d job requests (%.2f ms "
+                    + "average, %.2f ms max)%n", entry.getKey(), node
+                    .getNodes(), node.getJobs(), average(node.getJobNanos(),
+                    node.getJobs()), node.getMaxJobNanos() / 1e6, node
+                    .getSteals(), average(node.getStealNanos(), node
+                    .getSteals()), node.getMaxStealNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Writes the metrics to a file, as CSV if the name of the file ends in
+     * ".csv", as JSON otherwise. The file is replaced as a whole, so it can
+     * be read while it is exported periodically.
+     *
+     * @param file
+     *            file to write
+     */
+    public synchronized void export(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(temporary, "UTF-8");
+        try {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                writeCsv(out);
+            } else {
+                writeJson(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("error writing " + temporary);
+        }
+        if (!temporary.renameTo(file)
+                && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("cannot replace " + file);
+        }
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private SearchStatistics node(String name) {
+        SearchStatistics result = nodes.get(name);
+        if (result == null) {
+            result = new SearchStatistics();
+            nodes.put(name, result);
+        }
+        return result;
+    }
+
+    private long elapsed() {
+        return (end == 0 ? System.nanoTime() : end) - start;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count / (nanos / 1e9);
+    }
+
+    private static double average(long nanos, long count) {
+        return count == 0 ? 0 : nanos / 1e6 / count;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private void writeCsv(PrintWriter out) {
+        out.println(CSV_HEADER);
+        writeCsvRow(out, "total", "", elapsed(), total);
+        for (Bound bound : bounds) {
+            writeCsvRow(out, "bound", Integer.toString(bound.bound),
+                    bound.nanos, bound.statistics);
+        }
+        for (Map.Entry<String, SearchStatistics> entry : nodes.entrySet()) {
+            writeCsvRow(out, "node", entry.getKey(), -1, entry.getValue());
+        }
+    }
+
+    private static void writeCsvRow(PrintWriter out, String scope,
+            String name, long nanos, SearchStatistics statistics) {
+        out.println(scope + "," + name.replace(',', ' ') + ","
+                + (nanos < 0 ? "" : millis(nanos)) + ","
+                + statistics.getNodes() + "," + statistics.getLeaves() + ","
+                + statistics.getPruned() + "," + statistics.getHits() + ","
+                + statistics.getJobs() + ","
+                + millis(statistics.getJobNanos()) + ","
+                + millis(statistics.getMaxJobNanos()) + ","
+                + statistics.getSteals() + ","
+                + millis(statistics.getStealNanos()) + ","
+                + millis(statistics.getMaxStealNanos()));
+    }
+
+    private void writeJson(PrintWriter out) {
+        out.println("{");
+        out.println("  \"milliseconds\": " + millis(elapsed()) + ",");
+        out.println("  \"total\": " + json(total) + ",");
+        out.println("  \"bounds\": [");
+        for (int i = 0; i < bounds.size(); i++) {
+            Bound bound = bounds.get(i);
+            out.print("    {\"bound\": " + bound.bound + ", \"milliseconds\": "
+                    + millis(bound.nanos) + ", \"statistics\": "
+                    + json(bound.statistics) + "}");
+            out.println(i < bounds.size() - 1 ? "," : "");
+        }
+        out.println("  ],");
+        out.println("  \"nodes\": [");
+        int i = 0;
+        for (Map.Entry<String, SearchStatistics> entry : nodes.entrySet()) {
+            out.print("    {\"name\": \"" + escape(entry.getKey())
+                    + "\", \"statistics\": " + json(entry.getValue()) + "}");
+            out.println(++i < nodes.size() ? "," : "");
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static String json(SearchStatistics statistics) {
+        return "{\"nodes\": " + statistics.getNodes() + ", \"leaves\": "
+                + statistics.getLeaves() + ", \"pruned\": "
+                + statistics.getPruned() + ", \"hits\": "
+                + statistics.getHits() + ", \"jobs\": "
+                + statistics.getJobs() + ", \"job_milliseconds\": "
+                + millis(statistics.getJobNanos())
+                + ", \"max_job_milliseconds\": "
+                + millis(statistics.getMaxJobNanos()) + ", \"steals\": "
+                + statistics.getSteals() + ", \"steal_milliseconds\": "
+                + millis(statistics.getStealNanos())
+                + ", \"max_steal_milliseconds\": "
+                + millis(statistics.getMaxStealNanos()) + "}";
+    }
+
+    private static String escape(String text) {
+        StringBuilder result = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
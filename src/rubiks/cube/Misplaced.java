@@ -0,0 +1,140 @@
+package rubiks.cube;
+
+/**
+ * Count of the misplaced stickers of a cube: the stickers with another color
+ * than their side has in the solved cube (see Pieces.sideOfColor). A cube is
+ * solved if the count is 0.
+ *
+ * Like the Zobrist hash, the count of a twisted cube is derived from the
+ * count before the twist by looking at the moved stickers only, see twist().
+ * That makes the solved check a single comparison, for some work in every
+ * twist. Cubes only keep the count if asked to, see Cube.countMisplaced().
+ *
+ * Whether a sticker with a color is misplaced is looked up in a table laid
+ * out like the Zobrist keys, see table(). It depends on the colors of the
+ * sides, so it is made once per cube to solve and shared by all cubes
+ * twisted from it.
+ *
+ */
+public final class Misplaced {
+
+    private static final int SIDES = MoveTable.SIDES;
+
+    private Misplaced() {
+    }
+
+    /**
+     * Table of misplaced stickers for cubes of a given size and colors.
+     *
+     * @param size
+     *            size of the cube
+     * @param sideOfColor
+     *            side of every color in the solved cube
+     * @return 1 at sticker * SIDES + color if the sticker is misplaced with
+     *         that color, 0 if not
+     */
+    public static byte[] table(int size, byte[] sideOfColor) {
+        int elements = size * size;
+        byte[] table = new byte[SIDES * elements * SIDES];
+        for (int sticker = 0; sticker < SIDES * elements; sticker++) {
+            for (int color = 0; color < SIDES; color++) {
+                if (sideOfColor[color] != sticker / elements) {
+                    table[sticker * SIDES + color] = 1;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Misplaced stickers of a cube in the unpacked representation.
+     *
+     * @param data
+     *            color of every sticker
+     * @param table
+     *            table of misplaced stickers, see table()
+     * @return the number of misplaced stickers
+     */
+    public static int count(byte[] data, byte[] table) {
+        int count = 0;
+        for (int i = 0; i < data.length; i++) {
+            count += table[i * SIDES + data[i]];
+        }
+        return count;
+    }
+
+    /**
+     * Misplaced stickers of a cube in the packed representation, see
+     * PackedLayout.
+     *
+     * @param words
+     *            packed stickers
+     * @param table
+     *            table of misplaced stickers, see table()
+     * @return the number of misplaced stickers
+     */
+    public static int count(long[] words, byte[] table) {
+        int count = 0;
+        for (int i = 0; i < table.length / SIDES; i++) {
+            count += table[i * SIDES + PackedLayout.get(words, i)];
+        }
+        return count;
+    }
+
+    /**
+     * Misplaced stickers of a cube after a move, from the count before it.
+     * Only the moved stickers are looked at.
+     *
+     * @param count
+     *            count of the cube before the move
+     * @param moves
+     *            move table for the size of the cube
+     * @param move
+     *            index of the move
+     * @param from
+     *            stickers of the cube before the move
+     * @param table
+     *            table of misplaced stickers, see table()
+     * @return the count after the move
+     */
+    public static int twist(int count, MoveTable moves, int move, byte[] from,
+            byte[] table) {
+        int[] source = moves.source(move);
+        int[] moved = moves.moved(move);
+        for (int j = 0; j < moved.length; j++) {
+            int i = moved[j];
+            int base = i * SIDES;
+            count += table[base + from[source[i]]] - table[base + from[i]];
+        }
+        return count;
+    }
+
+    /**
+     * Misplaced stickers of a packed cube after a move, from the count before
+     * it. Only the moved stickers are looked at.
+     *
+     * @param count
+     *            count of the cube before the move
+     * @param moves
+     *            move table for the size of the cube
+     * @param move
+     *            index of the move
+     * @param from
+     *            packed stickers of the cube before the move
+     * @param table
+     *            table of misplaced stickers, see table()
+     * @return the count after the move
+     */
+    public static int twist(int count, MoveTable moves, int move, long[] from,
+            byte[] table) {
+        int[] source = moves.source(move);
+        int[] moved = moves.moved(move);
+        for (int j = 0; j < moved.length; j++) {
+            int i = moved[j];
+            int base = i * SIDES;
+            count += table[base + PackedLayout.get(from, source[i])]
+                    - table[base + PackedLayout.get(from, i)];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,443 @@
+package rubiks.cube;
+
+/**
+ * Precomputed twists for cubes of a single size. Every move (axis, row,
+ * direction) is stored as a flat permutation of the stickers of the cube:
+ * after the move, sticker i holds what was in sticker source(move)[i] before
+ * it. Stickers are numbered side by side (side * size * size + element).
+ *
+ * Applying a move is then a single gather loop over the stickers, instead of
+ * the index arithmetic of twisting rows and rotating sides.
+ *
+ * Tables are immutable and shared between all cubes of the same size.
+ *
+ */
+public final class MoveTable {
+
+    public static final int SIDES = 6;
+
+    public static final int AXES = 3;
+
+    // indexes for sides of the cube, same as in Cube, for the whole package
+
+    static final int TOP = 0;
+
+    static final int LEFT = 1;
+
+    static final int FRONT = 2;
+
+    static final int RIGHT = 3;
+
+    static final int BACK = 4;
+
+    static final int BOTTOM = 5;
+
+    private static final MoveTable[] tables = new MoveTable[16];
+
+    private final int size;
+
+    private final int stickers;
+
+    private final int[][] source;
+
+    // stickers changed by each move
+    private final int[][] moved;
+
+    /**
+     * Returns the (shared) move table for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the move table for this size
+     */
+    public static synchronized MoveTable forSize(int size) {
+        if (size >= tables.length) {
+            return new MoveTable(size);
+        }
+        if (tables[size] == null) {
+            tables[size] = new MoveTable(size);
+        }
+        return tables[size];
+    }
+
+    private MoveTable(int size) {
+        this.size = size;
+        this.stickers = SIDES * size * size;
+
+        source = new int[moves(size)][];
+        moved = new int[source.length][];
+        for (int move = 0; move < source.length; move++) {
+            source[move] = computeSource(move);
+            moved[move] = computeMoved(source[move]);
+        }
+    }
+
+    /**
+     * Number of different moves possible on a cube of the given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return number of moves
+     */
+    public static int moves(int size) {
+        return 2 * AXES * (size - 1);
+    }
+
+    /**
+     * Index of a move. Moves are ordered per axis, then per row, with the
+     * positive direction first (the same order as Cube.generateChildren).
+     *
+     * @param size
+     *            size of the cube
+     * @param axis
+     *            axis of the twist (0 = X, 1 = Y, 2 = Z)
+     * @param row
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     * @return the move index
+     */
+    public static int move(int size, int axis, int row, boolean direction) {
+        return ((axis * (size - 1)) + (row - 1)) * 2 + (direction ? 0 : 1);
+    }
+
+    /**
+     * @return the size of the cube this table is meant for
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of stickers of a cube of this size
+     */
+    public int stickers() {
+        return stickers;
+    }
+
+    /**
+     * @return the number of moves in this table
+     */
+    public int moves() {
+        return source.length;
+    }
+
+    /**
+     * Axis of a move.
+     *
+     * @param move
+     *            index of the move
+     * @return axis of the move (0 = X, 1 = Y, 2 = Z)
+     */
+    public int axis(int move) {
+        return move / (2 * (size - 1));
+    }
+
+    /**
+     * First row turned by a move.
+     *
+     * @param move
+     *            index of the move
+     * @return first row ( 0 < row < size )
+     */
+    public int row(int move) {
+        return (move / 2) % (size - 1) + 1;
+    }
+
+    /**
+     * Direction of a move.
+     *
+     * @param move
+     *            index of the move
+     * @return true if positive, false if negative
+     */
+    public boolean direction(int move) {
+        return (move & 1) == 0;
+    }
+
+    /**
+     * Move that undoes a given move.
+     *
+     * @param move
+     *            index of the move
+     * @return index of the inverse move
+     */
+    public int inverse(int move) {
+        return move ^ 1;
+    }
+
+    // *** Redundant move pruning ***\\
+
+    /*
+     * Twists on the same axis commute, so a sequence of twists on one axis
+     * (a "run") can be put in canonical order: rows ascending, each row turned
+     * at most twice and always in the same direction. Any other run can be
+     * done in fewer twists, so it never is part of an optimal solution. A
+     * canonical run stands for all its orderings, which are counted by
+     * weight().
+     *
+     * The state of a sequence is encoded in a single int: axis of the current
+     * run (2 bits), last row (8 bits), last direction (1 bit), number of twists
+     * of the last row (2 bits) and length of the run (8 bits).
+     */
+
+    /**
+     * Sequence state before any move has been done.
+     */
+    public static final int START = 3;
+
+    /**
+     * Computes the state of a sequence of twists after one more move, or
+     * returns -1 if the move makes the sequence redundant: either it undoes
+     * (part of) the current run or it is not in canonical order. For the
+     * first bound at which solutions exist, skipping these moves and counting
+     * the remaining sequences with weight() gives exactly the same
+     * number of solutions as trying all moves.
+     *
+     * @param state
+     *            state of the sequence so far, START if empty
+     * @param move
+     *            index of the next move
+     * @return state after the move, or -1 if the move is redundant
+     */
+    public int next(int state, int move) {
+        int axis = axis(move);
+        int row = row(move);
+        int direction = move & 1;
+
+        if ((state & 3) != axis) {
+            // new run
+            return axis | (row << 2) | (direction << 10) | (1 << 11)
+                    | (1 << 13);
+        }
+
+        int lastRow = (state >>> 2) & 0xff;
+        int lastDirection = (state >>> 10) & 1;
+        int lastCount = (state >>> 11) & 3;
+        int length = (state >>> 13) & 0xff;
+
+        if (row < lastRow) {
+            return -1;
+        }
+        if (row == lastRow) {
+            if (direction != lastDirection || lastCount == 2) {
+                // undoes last move, or three quarter turns
+                return -1;
+            }
+            return (state & ~(3 << 11) & ~(0xff << 13)) | (2 << 11)
+                    | ((length + 1) << 13);
+        }
+        return axis | (row << 2) | (direction << 10) | (1 << 11)
+                | ((length + 1) << 13);
+    }
+
+    /**
+     * Number of sequences a canonical sequence stands for: the product over
+     * all runs of the number of different orderings of the run.
+     *
+     * @param parentWeight
+     *            weight of the sequence before the last move
+     * @param state
+     *            state after the last move
+     * @return weight of the sequence including the last move
+     */
+    public static int weight(int parentWeight, int state) {
+        int length = (state >>> 13) & 0xff;
+        int lastCount = (state >>> 11) & 3;
+
+        // orderings of the run grow by length / lastCount, always exact
+        return (parentWeight * length) / lastCount;
+    }
+
+    /**
+     * Checks if the last move of a sequence started a new run. The weight of
+     * the sequence is then the weight before the move, and every sequence
+     * continuing from it has a weight that is a whole multiple of it.
+     *
+     * @param state
+     *            state after the last move
+     * @return true if the run of the last move has length 1
+     */
+    public static boolean startsRun(int state) {
+        return ((state >>> 13) & 0xff) == 1;
+    }
+
+    /**
+     * Permutation of a move: after the move, sticker i holds the sticker that
+     * was at source(move)[i] before. Must not be modified.
+     *
+     * @param move
+     *            index of the move
+     * @return the source index of every sticker
+     */
+    public int[] source(int move) {
+        return source[move];
+    }
+
+    /**
+     * Stickers changed by a move, the ones for which source(move)[i] != i, in
+     * ascending order. Must not be modified.
+     *
+     * @param move
+     *            index of the move
+     * @return the indices of the moved stickers
+     */
+    public int[] moved(int move) {
+        return moved[move];
+    }
+
+    /**
+     * Applies a move.
+     *
+     * @param move
+     *            index of the move
+     * @param from
+     *            stickers of the cube to twist
+     * @param to
+     *            stickers of the result, must not be the same array as from
+     */
+    public void twist(int move, byte[] from, byte[] to) {
+        int[] permutation = source[move];
+        for (int i = 0; i < permutation.length; i++) {
+            to[i] = from[permutation[i]];
+        }
+    }
+
+    // *** Only private functions ahead. Twists and rotations on sticker
+    // indices, exactly like the original Cube.twistX/Y/Z ***\\
+
+    private int[] computeSource(int move) {
+        int[][] data = new int[SIDES][size * size];
+        for (int side = 0; side < SIDES; side++) {
+            for (int element = 0; element < size * size; element++) {
+                data[side][element] = side * size * size + element;
+            }
+        }
+
+        switch (axis(move)) {
+        case 0:
+            twistX(data, row(move), direction(move));
+            break;
+        case 1:
+            twistY(data, row(move), direction(move));
+            break;
+        case 2:
+            twistZ(data, row(move), direction(move));
+            break;
+        }
+
+        int[] result = new int[stickers];
+        for (int side = 0; side < SIDES; side++) {
+            System.arraycopy(data[side], 0, result, side * size * size,
+                    size * size);
+        }
+        return result;
+    }
+
+    private static int[] computeMoved(int[] source) {
+        int count = 0;
+        for (int i = 0; i < source.length; i++) {
+            if (source[i] != i) {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i = 0; i < source.length; i++) {
+            if (source[i] != i) {
+                result[count++] = i;
+            }
+        }
+        return result;
+    }
+
+    private void rotate(int[][] data, int side, boolean direction) {
+        int[] result = new int[size * size];
+
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                if (direction) {
+                    result[(column * size) + size - 1 - row] = data[side][(row * size)
+                            + column];
+                } else {
+                    result[(row * size) + column] = data[side][(column * size)
+                            + size - 1 - row];
+                }
+            }
+        }
+
+        System.arraycopy(result, 0, data[side], 0, result.length);
+    }
+
+    private void twistX(int[][] data, int firstRow, boolean direction) {
+        for (int element = firstRow * size; element < size * size; element++) {
+            if (direction) {
+                int tmp = data[BACK][element];
+                data[BACK][element] = data[RIGHT][element];
+                data[RIGHT][element] = data[FRONT][element];
+                data[FRONT][element] = data[LEFT][element];
+                data[LEFT][element] = tmp;
+            } else {
+                int tmp = data[LEFT][element];
+                data[LEFT][element] = data[FRONT][element];
+                data[FRONT][element] = data[RIGHT][element];
+                data[RIGHT][element] = data[BACK][element];
+                data[BACK][element] = tmp;
+            }
+        }
+        rotate(data, BOTTOM, direction);
+    }
+
+    private void twistY(int[][] data, int firstColumn, boolean direction) {
+        for (int row = 0; row < size; row++) {
+            for (int column = firstColumn; column < size; column++) {
+                int element = (row * size) + column;
+                // back is "mirrored"
+                int backElement = ((size - 1 - row) * size) + size - 1
+                        - column;
+
+                if (direction) {
+                    int tmp = data[TOP][element];
+                    data[TOP][element] = data[FRONT][element];
+                    data[FRONT][element] = data[BOTTOM][element];
+                    data[BOTTOM][element] = data[BACK][backElement];
+                    data[BACK][backElement] = tmp;
+                } else {
+                    int tmp = data[TOP][element];
+                    data[TOP][element] = data[BACK][backElement];
+                    data[BACK][backElement] = data[BOTTOM][element];
+                    data[BOTTOM][element] = data[FRONT][element];
+                    data[FRONT][element] = tmp;
+                }
+            }
+        }
+        rotate(data, RIGHT, direction);
+    }
+
+    private void twistZ(int[][] data, int firstRow, boolean direction) {
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int topElement = ((size - 1 - row) * size) + column;
+                int rightElement = (column * size) + row;
+                int bottomElement = (row * size) + size - 1 - column;
+                int leftElement = ((size - 1 - column) * size) + size - 1
+                        - row;
+
+                if (direction) {
+                    int tmp = data[TOP][topElement];
+                    data[TOP][topElement] = data[LEFT][leftElement];
+                    data[LEFT][leftElement] = data[BOTTOM][bottomElement];
+                    data[BOTTOM][bottomElement] = data[RIGHT][rightElement];
+                    data[RIGHT][rightElement] = tmp;
+                } else {
+                    int tmp = data[TOP][topElement];
+                    data[TOP][topElement] = data[RIGHT][rightElement];
+                    data[RIGHT][rightElement] = data[BOTTOM][bottomElement];
+                    data[BOTTOM][bottomElement] = data[LEFT][leftElement];
+                    data[LEFT][leftElement] = tmp;
+                }
+            }
+        }
+        rotate(data, BACK, !direction);
+    }
+}
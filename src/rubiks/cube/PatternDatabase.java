@@ -0,0 +1,542 @@
+package rubiks.cube;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Pattern database: for every placement of a set of pieces, the minimum number
+ * of twists needed to put those pieces back where they belong. As every twist
+ * moves the pieces in the set at most once, this is a lower bound for solving
+ * the complete cube.
+ *
+ * The table is generated with a breadth first pass from the solved cube, and
+ * stores one distance per nibble (4 bits).
+ *
+ * The state of the pieces in the set is the position and orientation of each
+ * piece. The orientation of a piece is the index of the sticker holding its
+ * reference color (the color of its first sticker in the solved cube). The
+ * corner which never moves is not part of any set.
+ *
+ * On disk, a database is a fixed size header followed by the table as is (see
+ * write()). Databases are loaded by mapping the file, so the table is only
+ * paged in where the search looks, and all JVMs on a host share the same pages
+ * in the page cache.
+ *
+ */
+public final class PatternDatabase {
+
+    public static final int CORNERS = 0;
+
+    public static final int EDGES = 1;
+
+    // distance stored for states not reached yet
+    private static final int UNKNOWN = 0xf;
+
+    // "PDB" followed by the version of the file format
+    private static final int MAGIC = 0x50444201;
+
+    // magic, size, kind, first, count, table length (ints) and checksum (long)
+    private static final int HEADER_LENGTH = 32;
+
+    private final int size;
+
+    private final int kind;
+
+    private final int first;
+
+    private final int count;
+
+    // stickers of each position the pieces can be in
+    private final int[][] positions;
+
+    // stickers per piece
+    private final int slots;
+
+    // piece per set of (side) colors, -1 if none
+    private final int[] pieceOfColors;
+
+    // reference side (color) per piece
+    private final int[] reference;
+
+    // per move and position: new position, and new slot for each slot
+    private final int[][] nextPosition;
+
+    private final int[][] nextSlot;
+
+    private final int orientations;
+
+    private final int entries;
+
+    // one nibble per entry, either on the heap or mapped from a file
+    private final ByteBuffer table;
+
+    /**
+     * Creates a database. If table is null an empty table is allocated, use
+     * generate() to fill it.
+     */
+    private PatternDatabase(int size, int kind, int first, int count,
+            ByteBuffer table) {
+        this.size = size;
+        this.kind = kind;
+        this.first = first;
+        this.count = count;
+
+        Pieces pieces = Pieces.forSize(size);
+        MoveTable moves = MoveTable.forSize(size);
+
+        int[][] all;
+        if (kind == CORNERS) {
+            all = pieces.corners();
+        } else if (kind == EDGES) {
+            all = pieces.edges();
+            if (all == null) {
+                throw new Error("no edge pieces on a cube of size " + size);
+            }
+        } else {
+            throw new Error("unknown pattern database kind: " + kind);
+        }
+
+        // leave out the fixed corner, it never moves
+        int skip = (kind == CORNERS) ? pieces.fixedCorner() : -1;
+        positions = new int[skip == -1 ? all.length : all.length - 1][];
+        int next = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i != skip) {
+                positions[next++] = all[i];
+            }
+        }
+        slots = positions[0].length;
+
+        if (first < 0 || count <= 0 || first + count > positions.length) {
+            throw new Error("invalid set of pieces: " + first + " - "
+                    + (first + count - 1));
+        }
+
+        // in the solved cube, piece i is at position i
+        pieceOfColors = new int[1 << MoveTable.SIDES];
+        for (int i = 0; i < pieceOfColors.length; i++) {
+            pieceOfColors[i] = -1;
+        }
+        reference = new int[positions.length];
+        for (int piece = 0; piece < positions.length; piece++) {
+            int colors = 0;
+            for (int sticker : positions[piece]) {
+                colors |= 1 << pieces.side(sticker);
+            }
+            pieceOfColors[colors] = piece;
+            reference[piece] = pieces.side(positions[piece][0]);
+        }
+
+        // where each sticker ends up for each move
+        int[] positionOf = new int[moves.stickers()];
+        int[] slotOf = new int[moves.stickers()];
+        for (int i = 0; i < positionOf.length; i++) {
+            positionOf[i] = -1;
+        }
+        for (int position = 0; position < positions.length; position++) {
+            for (int slot = 0; slot < slots; slot++) {
+                positionOf[positions[position][slot]] = position;
+                slotOf[positions[position][slot]] = slot;
+            }
+        }
+        nextPosition = new int[moves.moves()][positions.length];
+        nextSlot = new int[moves.moves()][positions.length * slots];
+        for (int move = 0; move < moves.moves(); move++) {
+            int[] source = moves.source(move);
+            for (int to = 0; to < source.length; to++) {
+                int from = source[to];
+                if (positionOf[from] != -1) {
+                    int position = positionOf[from];
+                    nextPosition[move][position] = positionOf[to];
+                    nextSlot[move][(position * slots) + slotOf[from]] = slotOf[to];
+                }
+            }
+        }
+
+        int orientations = 1;
+        long entries = 1;
+        for (int i = 0; i < count; i++) {
+            orientations *= slots;
+            entries *= positions.length - i;
+        }
+        entries *= orientations;
+        if (entries > Integer.MAX_VALUE) {
+            throw new Error("pattern database too big: " + entries
+                    + " entries");
+        }
+        this.orientations = orientations;
+        this.entries = (int) entries;
+        if (table == null) {
+            table = ByteBuffer.allocate((this.entries + 1) / 2);
+        }
+        this.table = table;
+    }
+
+    /**
+     * Generates a database by a breadth first pass from the solved cube.
+     *
+     * @param size
+     *            size of the cube
+     * @param kind
+     *            CORNERS or EDGES
+     * @param first
+     *            first piece in the set
+     * @param count
+     *            number of pieces in the set
+     * @return the generated database
+     */
+    public static PatternDatabase generate(int size, int kind, int first,
+            int count) {
+        PatternDatabase result = new PatternDatabase(size, kind, first,
+                count, null);
+        result.generate();
+        return result;
+    }
+
+    /**
+     * Maps a database written by write(). Only the header is read, the table
+     * is paged in by the operating system when it is used.
+     *
+     * @param file
+     *            file to map
+     * @return the database
+     * @throws IOException
+     *             if the file cannot be mapped, or is not a valid database
+     */
+    public static PatternDatabase map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_LENGTH) {
+                throw new IOException(file + " is not a pattern database");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_LENGTH);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a pattern database");
+            }
+            int size = header.getInt();
+            int kind = header.getInt();
+            int first = header.getInt();
+            int count = header.getInt();
+            int length = header.getInt();
+            if (channel.size() != HEADER_LENGTH + (long) length) {
+                throw new IOException(file + " is truncated: "
+                        + channel.size() + " bytes, expected "
+                        + (HEADER_LENGTH + (long) length));
+            }
+
+            // the mapping stays valid after the channel is closed
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_LENGTH, length);
+            PatternDatabase result = new PatternDatabase(size, kind, first,
+                    count, table);
+            if (length != (result.entries + 1) / 2) {
+                throw new IOException("pattern database has wrong length: "
+                        + length + ", expected " + ((result.entries + 1) / 2));
+            }
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Checks the table against the checksum in the header of a database
+     * file. Reads the whole file.
+     *
+     * @param file
+     *            file to check
+     * @return true if the checksum matches
+     * @throws IOException
+     *             in case of trouble
+     */
+    public static boolean verify(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_LENGTH) {
+                return false;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_LENGTH);
+            long checksum = header.getLong(HEADER_LENGTH - 8);
+            return checksum == checksum(channel.map(
+                    FileChannel.MapMode.READ_ONLY, HEADER_LENGTH,
+                    channel.size() - HEADER_LENGTH));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes this database to a file. The file is written under a temporary
+     * name first and then renamed, so other processes never map a partially
+     * written database.
+     *
+     * @param file
+     *            file to write to
+     * @throws IOException
+     *             in case of trouble
+     */
+    public void write(File file) throws IOException {
+        ByteBuffer data = table.duplicate();
+        data.clear();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putInt(size);
+        header.putInt(kind);
+        header.putInt(first);
+        header.putInt(count);
+        header.putInt(data.remaining());
+        header.putLong(checksum(data.duplicate()));
+        header.flip();
+
+        File temporary = File.createTempFile(getName(), ".tmp", file
+                .getAbsoluteFile().getParentFile());
+        RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            raf.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("cannot rename " + temporary + " to " + file);
+        }
+    }
+
+    /**
+     * Name of this database, unique for each set of pieces of a size.
+     *
+     * @return the name of this database
+     */
+    public String getName() {
+        return name(size, kind, first, count);
+    }
+
+    /**
+     * Name of a database, unique for each set of pieces of a size.
+     *
+     * @return the name of the database
+     */
+    public static String name(int size, int kind, int first, int count) {
+        return size + "-" + (kind == CORNERS ? "corners" : "edges") + first
+                + "-" + (first + count - 1);
+    }
+
+    /**
+     * @return the number of entries in this database
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * Lower bound for the number of twists needed to solve a cube.
+     *
+     * @param stickers
+     *            stickers of the cube (side * size * size + element)
+     * @param sideOfColor
+     *            side per color, see Pieces.sideOfColor
+     * @return minimum number of twists needed
+     */
+    public int estimate(byte[] stickers, byte[] sideOfColor) {
+        return estimate(stickers, null, sideOfColor);
+    }
+
+    /**
+     * Lower bound for the number of twists needed to solve a packed cube.
+     *
+     * @param words
+     *            stickers of the cube, see PackedLayout
+     * @param sideOfColor
+     *            side per color, see Pieces.sideOfColor
+     * @return minimum number of twists needed
+     */
+    public int estimate(long[] words, byte[] sideOfColor) {
+        return estimate(null, words, sideOfColor);
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Looks up a cube in the table. Positions (4 bits per piece) and slots (2
+     * bits per piece) are gathered in a long and an int, so nothing is
+     * allocated.
+     */
+    private int estimate(byte[] stickers, long[] words, byte[] sideOfColor) {
+        long position = 0;
+        int slot = 0;
+
+        for (int p = 0; p < positions.length; p++) {
+            int[] stickersOf = positions[p];
+            int colors = 0;
+            for (int s = 0; s < slots; s++) {
+                colors |= 1 << sideOfColor[color(stickers, words, stickersOf[s])];
+            }
+            int piece = pieceOfColors[colors] - first;
+            if (piece >= 0 && piece < count) {
+                position |= ((long) p) << (piece * 4);
+                int side = reference[piece + first];
+                for (int s = 0; s < slots; s++) {
+                    if (sideOfColor[color(stickers, words, stickersOf[s])] == side) {
+                        slot |= s << (piece * 2);
+                    }
+                }
+            }
+        }
+
+        int index = 0;
+        int used = 0;
+        int orientation = 0;
+        for (int i = 0; i < count; i++) {
+            int p = (int) (position >>> (i * 4)) & 0xf;
+            index = (index * (positions.length - i)) + rank(p, used);
+            used |= 1 << p;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            orientation = (orientation * slots) + ((slot >>> (i * 2)) & 3);
+        }
+        return get((index * orientations) + orientation);
+    }
+
+    private static byte color(byte[] stickers, long[] words, int sticker) {
+        if (stickers != null) {
+            return stickers[sticker];
+        }
+        return PackedLayout.get(words, sticker);
+    }
+
+    /**
+     * Rank of a position among the positions not used yet.
+     */
+    private static int rank(int position, int used) {
+        return position - Integer.bitCount(used & ((1 << position) - 1));
+    }
+
+    private static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private int get(int index) {
+        return (table.get(index >>> 1) >>> ((index & 1) << 2)) & 0xf;
+    }
+
+    private void set(int index, int value) {
+        int shift = (index & 1) << 2;
+        table.put(index >>> 1, (byte) ((table.get(index >>> 1) & ~(0xf << shift)) | (value << shift)));
+    }
+
+    /**
+     * Encodes positions and slots of the pieces in the set into an index.
+     */
+    private int encode(int[] position, int[] slot) {
+        int index = 0;
+        int used = 0;
+        int orientation = 0;
+        for (int i = 0; i < count; i++) {
+            index = (index * (positions.length - i))
+                    + rank(position[i], used);
+            used |= 1 << position[i];
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            orientation = (orientation * slots) + slot[i];
+        }
+        return (index * orientations) + orientation;
+    }
+
+    /**
+     * Decodes an index into positions and slots of the pieces in the set.
+     */
+    private void decode(int index, int[] position, int[] slot) {
+        int orientation = index % orientations;
+        int rest = index / orientations;
+
+        for (int i = 0; i < count; i++) {
+            slot[i] = orientation % slots;
+            orientation /= slots;
+        }
+
+        // ranks were added most significant first
+        int[] ranks = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            ranks[i] = rest % (positions.length - i);
+            rest /= positions.length - i;
+        }
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            int p = -1;
+            int rank = ranks[i];
+            do {
+                p++;
+                if ((used & (1 << p)) == 0) {
+                    rank--;
+                }
+            } while (rank >= 0);
+            position[i] = p;
+            used |= 1 << p;
+        }
+    }
+
+    private void generate() {
+        for (int i = 0; i < table.capacity(); i++) {
+            table.put(i, (byte) 0xff);
+        }
+
+        int[] position = new int[count];
+        int[] slot = new int[count];
+        int[] movedPosition = new int[count];
+        int[] movedSlot = new int[count];
+
+        // solved: every piece at home, with its reference color in slot 0
+        for (int i = 0; i < count; i++) {
+            position[i] = first + i;
+            slot[i] = 0;
+        }
+        set(encode(position, slot), 0);
+
+        int moves = nextPosition.length;
+        int depth = 0;
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (int index = 0; index < entries; index++) {
+                if (get(index) != depth) {
+                    continue;
+                }
+                decode(index, position, slot);
+                for (int move = 0; move < moves; move++) {
+                    int[] nextP = nextPosition[move];
+                    int[] nextS = nextSlot[move];
+                    for (int i = 0; i < count; i++) {
+                        movedPosition[i] = nextP[position[i]];
+                        movedSlot[i] = nextS[(position[i] * slots) + slot[i]];
+                    }
+                    int next = encode(movedPosition, movedSlot);
+                    if (get(next) == UNKNOWN) {
+                        if (depth + 1 >= UNKNOWN) {
+                            throw new Error("pattern database too deep");
+                        }
+                        set(next, depth + 1);
+                        found = true;
+                    }
+                }
+            }
+            depth++;
+        }
+    }
+}
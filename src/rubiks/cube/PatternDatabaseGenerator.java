@@ -0,0 +1,104 @@
+package rubiks.cube;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generates the pattern databases for a cube size, and saves them in a
+ * directory for use with the --pdb option of the solvers.
+ *
+ */
+public class PatternDatabaseGenerator {
+
+    public static void printUsage() {
+        System.out.println("Pattern database generator");
+        System.out.println("");
+        System.out
+                .println("Generates the pattern databases used to prune the search of the solvers");
+        System.out.println("");
+        System.out.println("USAGE: PatternDatabaseGenerator [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out.println("--size SIZE\t\tSize of cube (default: 3)");
+        System.out
+                .println("--dir DIR\t\tDirectory to save the databases in (default: .)");
+        System.out
+                .println("--verify\t\tCheck the checksums of the databases in DIR instead of generating them");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        int size = 3;
+        String directory = ".";
+        boolean verify = false;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--dir")) {
+                i++;
+                directory = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--verify")) {
+                verify = true;
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (verify) {
+            System.exit(verify(new File(directory), size) ? 0 : 1);
+        }
+
+        long start = System.currentTimeMillis();
+        Heuristic heuristic = Heuristic.generate(size);
+        long end = System.currentTimeMillis();
+        System.err.println("Generating pattern databases took "
+                + (end - start) + " milliseconds");
+
+        try {
+            heuristic.save(new File(directory));
+        } catch (IOException e) {
+            System.err.println("Cannot save pattern databases: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Checks the checksums of all databases for a size in a directory.
+     *
+     * @return true if all databases are present and intact
+     */
+    private static boolean verify(File directory, int size) {
+        boolean result = true;
+        for (int[] set : Heuristic.databases(size)) {
+            File file = new File(directory, PatternDatabase.name(size, set[0],
+                    set[1], set[2])
+                    + ".pdb");
+            try {
+                if (PatternDatabase.verify(file)) {
+                    System.out.println(file + ": ok");
+                } else {
+                    System.out.println(file + ": checksum mismatch");
+                    result = false;
+                }
+            } catch (IOException e) {
+                System.out.println(file + ": " + e);
+                result = false;
+            }
+        }
+        return result;
+    }
+}
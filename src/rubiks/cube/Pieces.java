@@ -0,0 +1,248 @@
+package rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The pieces (corners and edges) of a cube, as groups of stickers. Derived from
+ * the moves in the MoveTable: a sticker is in layer l of an axis if exactly l
+ * of the moves on that axis turn it, and all stickers of a piece are in the
+ * same layers on all axes.
+ *
+ * Since no move ever turns row 0, one corner never moves. The stickers of that
+ * corner also tell which color belongs on which side of the solved cube.
+ *
+ */
+public final class Pieces {
+
+    private static final int SIDES = MoveTable.SIDES;
+
+    // side opposite of each side (TOP, LEFT, FRONT, RIGHT, BACK, BOTTOM)
+    private static final int[] OPPOSITE = { 5, 3, 4, 1, 2, 0 };
+
+    private static final Pieces[] pieces = new Pieces[16];
+
+    private final int size;
+
+    private final int[][] corners;
+
+    private final int fixedCorner;
+
+    private final int[][] edges;
+
+    /**
+     * Returns the (shared) pieces of cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the pieces of a cube of this size
+     */
+    public static synchronized Pieces forSize(int size) {
+        if (size >= pieces.length) {
+            return new Pieces(size);
+        }
+        if (pieces[size] == null) {
+            pieces[size] = new Pieces(size);
+        }
+        return pieces[size];
+    }
+
+    private Pieces(int size) {
+        this.size = size;
+
+        MoveTable table = MoveTable.forSize(size);
+        int last = size - 1;
+
+        // corner stickers
+        List<Integer> cornerStickers = new ArrayList<Integer>();
+        for (int side = 0; side < SIDES; side++) {
+            int first = side * size * size;
+            cornerStickers.add(first);
+            cornerStickers.add(first + last);
+            cornerStickers.add(first + (last * size));
+            cornerStickers.add(first + (last * size) + last);
+        }
+        corners = group(table, cornerStickers);
+
+        int fixed = -1;
+        for (int corner = 0; corner < corners.length; corner++) {
+            if (layers(table, corners[corner][0]) == 0) {
+                fixed = corner;
+            }
+        }
+        fixedCorner = fixed;
+
+        // edges only exist as single pieces on a size 3 cube
+        if (size == 3) {
+            List<Integer> edgeStickers = new ArrayList<Integer>();
+            for (int side = 0; side < SIDES; side++) {
+                int first = side * size * size;
+                edgeStickers.add(first + 1);
+                edgeStickers.add(first + 3);
+                edgeStickers.add(first + 5);
+                edgeStickers.add(first + 7);
+            }
+            edges = group(table, edgeStickers);
+        } else {
+            edges = null;
+        }
+    }
+
+    /**
+     * @return the size of the cube
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Stickers of all corners. Each corner is an array of 3 sticker indices,
+     * in ascending order. Must not be modified.
+     *
+     * @return stickers per corner
+     */
+    public int[][] corners() {
+        return corners;
+    }
+
+    /**
+     * @return index of the corner which is never moved
+     */
+    public int fixedCorner() {
+        return fixedCorner;
+    }
+
+    /**
+     * Stickers of all edges. Each edge is an array of 2 sticker indices, in
+     * ascending order. Must not be modified.
+     *
+     * @return stickers per edge, or null if the cube has no single edge pieces
+     */
+    public int[][] edges() {
+        return edges;
+    }
+
+    /**
+     * Side a sticker is on.
+     *
+     * @param sticker
+     *            index of the sticker
+     * @return side of the sticker
+     */
+    public int side(int sticker) {
+        return sticker / (size * size);
+    }
+
+    /**
+     * Finds out which side each color belongs to in the solved cube: the fixed
+     * corner gives three sides, the other three sides have the colors which
+     * never share a corner with those.
+     *
+     * @param stickers
+     *            all stickers of a cube (side * size * size + element)
+     * @return side per color, or null if the cube is not consistent
+     */
+    public byte[] sideOfColor(byte[] stickers) {
+        // colors sharing a corner
+        boolean[][] adjacent = new boolean[SIDES][SIDES];
+        for (int[] corner : corners) {
+            for (int a : corner) {
+                for (int b : corner) {
+                    if (stickers[a] < 0 || stickers[a] >= SIDES) {
+                        return null;
+                    }
+                    adjacent[stickers[a]][stickers[b]] = true;
+                }
+            }
+        }
+
+        int[] colorOfSide = new int[SIDES];
+        for (int side = 0; side < SIDES; side++) {
+            colorOfSide[side] = -1;
+        }
+        for (int sticker : corners[fixedCorner]) {
+            colorOfSide[side(sticker)] = stickers[sticker];
+        }
+        for (int sticker : corners[fixedCorner]) {
+            int color = stickers[sticker];
+            int opposite = -1;
+            for (int other = 0; other < SIDES; other++) {
+                if (!adjacent[color][other]) {
+                    if (opposite != -1) {
+                        return null;
+                    }
+                    opposite = other;
+                }
+            }
+            if (opposite == -1) {
+                return null;
+            }
+            colorOfSide[OPPOSITE[side(sticker)]] = opposite;
+        }
+
+        byte[] result = new byte[SIDES];
+        for (int color = 0; color < SIDES; color++) {
+            result[color] = -1;
+        }
+        for (int side = 0; side < SIDES; side++) {
+            if (colorOfSide[side] == -1 || result[colorOfSide[side]] != -1) {
+                return null;
+            }
+            result[colorOfSide[side]] = (byte) side;
+        }
+        return result;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Signature of the layers a sticker is in, one digit (base size) per axis.
+     */
+    private int layers(MoveTable table, int sticker) {
+        int result = 0;
+        for (int axis = 0; axis < MoveTable.AXES; axis++) {
+            int layer = 0;
+            for (int row = 1; row < size; row++) {
+                int move = MoveTable.move(size, axis, row, true);
+                if (table.source(move)[sticker] != sticker) {
+                    layer++;
+                }
+            }
+            result = (result * size) + layer;
+        }
+        return result;
+    }
+
+    /**
+     * Groups stickers in the same layers into pieces.
+     */
+    private int[][] group(MoveTable table, List<Integer> stickers) {
+        List<Integer> signatures = new ArrayList<Integer>();
+        List<List<Integer>> groups = new ArrayList<List<Integer>>();
+
+        for (int sticker : stickers) {
+            int signature = layers(table, sticker);
+            int index = signatures.indexOf(signature);
+            if (index == -1) {
+                signatures.add(signature);
+                groups.add(new ArrayList<Integer>());
+                index = groups.size() - 1;
+            }
+            if (!groups.get(index).contains(sticker)) {
+                groups.get(index).add(sticker);
+            }
+        }
+
+        int[][] result = new int[groups.size()][];
+        for (int i = 0; i < result.length; i++) {
+            List<Integer> group = groups.get(i);
+            result[i] = new int[group.size()];
+            for (int j = 0; j < result[i].length; j++) {
+                result[i][j] = group.get(j);
+            }
+            Arrays.sort(result[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package rubiks.cube;
+
+/**
+ * Counters of the work done by a search: the cubes it generated (nodes), the
+ * ones that were solved or at the bound (leaves), the ones cut off by the
+ * heuristic (pruned) and the subtrees counted from the transposition table
+ * (hits). Solvers add the time of the jobs they searched, and of the jobs
+ * they stole or handed out.
+ *
+ * Counters are plain longs, not thread safe. Every search keeps its own, and
+ * they are summed (see Metrics) between jobs or bounds, never while
+ * searching.
+ *
+ */
+public final class SearchStatistics {
+
+    /**
+     * Number of counts of toArray().
+     */
+    public static final int FIELDS = 10;
+
+    private long nodes = 0;
+
+    private long leaves = 0;
+
+    private long pruned = 0;
+
+    private long hits = 0;
+
+    private long jobs = 0;
+
+    private long jobNanos = 0;
+
+    private long maxJobNanos = 0;
+
+    private long steals = 0;
+
+    private long stealNanos = 0;
+
+    private long maxStealNanos = 0;
+
+    /**
+     * Adds the counts of (part of) a search.
+     *
+     * @param nodes
+     *            number of cubes generated by a twist
+     * @param leaves
+     *            number of cubes solved or at the bound
+     * @param pruned
+     *            number of cubes cut off by the heuristic
+     * @param hits
+     *            number of subtrees counted from the transposition table
+     */
+    public void add(long nodes, long leaves, long pruned, long hits) {
+        this.nodes += nodes;
+        this.leaves += leaves;
+        this.pruned += pruned;
+        this.hits += hits;
+    }
+
+    /**
+     * Adds a job that has been searched.
+     *
+     * @param nanos
+     *            time the job took, in nanoseconds
+     */
+    public void addJob(long nanos) {
+        jobs++;
+        jobNanos += nanos;
+        maxJobNanos = Math.max(maxJobNanos, nanos);
+    }
+
+    /**
+     * Adds a job request that has been answered.
+     *
+     * @param nanos
+     *            time from request to reply, in nanoseconds
+     */
+    public void addSteal(long nanos) {
+        steals++;
+        stealNanos += nanos;
+        maxStealNanos = Math.max(maxStealNanos, nanos);
+    }
+
+    /**
+     * Adds all counts of other statistics to these.
+     *
+     * @param other
+     *            statistics to add
+     */
+    public void add(SearchStatistics other) {
+        add(other.nodes, other.leaves, other.pruned, other.hits);
+        jobs += other.jobs;
+        jobNanos += other.jobNanos;
+        maxJobNanos = Math.max(maxJobNanos, other.maxJobNanos);
+        steals += other.steals;
+        stealNanos += other.stealNanos;
+        maxStealNanos = Math.max(maxStealNanos, other.maxStealNanos);
+    }
+
+    /**
+     * Copies these statistics, and resets them to zero.
+     *
+     * @return the statistics before the reset
+     */
+    public SearchStatistics take() {
+        SearchStatistics result = new SearchStatistics();
+        result.add(this);
+        nodes = leaves = pruned = hits = 0;
+        jobs = jobNanos = maxJobNanos = 0;
+        steals = stealNanos = maxStealNanos = 0;
+        return result;
+    }
+
+    /**
+     * All FIELDS counts in a fixed order, used to send the statistics to
+     * another node.
+     *
+     * @return the counts
+     */
+    public long[] toArray() {
+        return new long[] { nodes, leaves, pruned, hits, jobs, jobNanos,
+                maxJobNanos, steals, stealNanos, maxStealNanos };
+    }
+
+    /**
+     * Creates statistics from the counts given by toArray().
+     *
+     * @param counts
+     *            the counts
+     * @return the statistics
+     */
+    public static SearchStatistics fromArray(long[] counts) {
+        SearchStatistics result = new SearchStatistics();
+        result.add(counts[0], counts[1], counts[2], counts[3]);
+        result.jobs = counts[4];
+        result.jobNanos = counts[5];
+        result.maxJobNanos = counts[6];
+        result.steals = counts[7];
+        result.stealNanos = counts[8];
+        result.maxStealNanos = counts[9];
+        return result;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getPruned() {
+        return pruned;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getJobs() {
+        return jobs;
+    }
+
+    public long getJobNanos() {
+        return jobNanos;
+    }
+
+    public long getMaxJobNanos() {
+        return maxJobNanos;
+    }
+
+    public long getSteals() {
+        return steals;
+    }
+
+    public long getStealNanos() {
+        return stealNanos;
+    }
+
+    public long getMaxStealNanos() {
+        return maxStealNanos;
+    }
+}
@@ -0,0 +1,181 @@
+package rubiks.cube;
+
+/**
+ * Map from packed cubes (see PackedLayout) to a positive count, used to
+ * store the cubes around the solved cube in a meet in the middle search.
+ * Open addressing with linear probing, the cubes are stored inline in a
+ * single long array, so the table takes (words * 8 + 4) bytes per slot and
+ * no objects per entry.
+ *
+ * The table grows up to a maximum amount of memory. Once that is reached,
+ * adding a new cube fails, and the caller has to do without it.
+ *
+ */
+public final class StateTable {
+
+    // grow (or refuse new cubes) once this fraction of the slots is used
+    private static final double LOAD = 0.75;
+
+    private final int words;
+
+    private final int maximumSlots;
+
+    // cube of slot i at i * words
+    private long[] states;
+
+    // count of each slot, 0 if the slot is empty
+    private int[] counts;
+
+    private int entries = 0;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param words
+     *            number of longs of a packed cube, see PackedLayout.words()
+     * @param bytes
+     *            maximum memory used by the table
+     */
+    public StateTable(int words, long bytes) {
+        this.words = words;
+
+        long slots = Math.max(2, bytes / (words * 8 + 4));
+        // the longs of the table must fit in one array
+        slots = Math.min(slots, Integer.MAX_VALUE / words);
+        this.maximumSlots = (int) Long.highestOneBit(slots);
+
+        allocate(Math.min(maximumSlots, 1024));
+    }
+
+    /**
+     * @return the number of cubes in the table
+     */
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * @return the number of slots, iterate over them with count() and
+     *         state()
+     */
+    public int slots() {
+        return counts.length;
+    }
+
+    /**
+     * Count stored in a slot.
+     *
+     * @param slot
+     *            index of the slot
+     * @return the count, 0 if the slot is empty
+     */
+    public int count(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Copies the cube of a used slot.
+     *
+     * @param slot
+     *            index of the slot
+     * @param target
+     *            packed cube to copy to
+     */
+    public void state(int slot, long[] target) {
+        System.arraycopy(states, slot * words, target, 0, words);
+    }
+
+    /**
+     * Looks up the count of a cube.
+     *
+     * @param state
+     *            packed cube
+     * @return the count, 0 if the cube is not in the table
+     */
+    public int get(long[] state) {
+        int mask = counts.length - 1;
+        for (int slot = hash(state) & mask; counts[slot] != 0; slot = (slot + 1)
+                & mask) {
+            if (matches(slot, state)) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds to the count of a cube, inserting the cube if needed.
+     *
+     * @param state
+     *            packed cube
+     * @param count
+     *            amount to add, must be positive
+     * @return false if the cube is new and the table is full
+     */
+    public boolean add(long[] state, int count) {
+        int mask = counts.length - 1;
+        int slot = hash(state) & mask;
+        for (; counts[slot] != 0; slot = (slot + 1) & mask) {
+            if (matches(slot, state)) {
+                counts[slot] += count;
+                return true;
+            }
+        }
+
+        if (entries + 1 > counts.length * LOAD) {
+            if (counts.length >= maximumSlots) {
+                return false;
+            }
+            grow();
+            return add(state, count);
+        }
+
+        System.arraycopy(state, 0, states, slot * words, words);
+        counts[slot] = count;
+        entries++;
+        return true;
+    }
+
+    // *** Only private functions ahead ***\\
+
+    private void allocate(int slots) {
+        states = new long[slots * words];
+        counts = new int[slots];
+        entries = 0;
+    }
+
+    private void grow() {
+        long[] oldStates = states;
+        int[] oldCounts = counts;
+        allocate(counts.length * 2);
+
+        long[] state = new long[words];
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                System.arraycopy(oldStates, slot * words, state, 0, words);
+                add(state, oldCounts[slot]);
+            }
+        }
+    }
+
+    private boolean matches(int slot, long[] state) {
+        int offset = slot * words;
+        for (int i = 0; i < words; i++) {
+            if (states[offset + i] != state[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(long[] state) {
+        long z = 0;
+        for (long word : state) {
+            z = (z ^ word) * 0x9e3779b97f4a7c15L;
+        }
+        // mix the bits (from splitMix64), the low ones select the slot
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return (int) (z ^ (z >>> 31));
+    }
+}
@@ -0,0 +1,235 @@
+package rubiks.cube;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The 48 spatial symmetries of a cube (24 rotations, each with and without a
+ * mirror image), as permutations of the stickers: after applying a symmetry,
+ * sticker i holds the sticker that was at source(symmetry)[i] before it, like
+ * the moves of MoveTable.
+ *
+ * Cubes that are symmetries of each other, up to the names of the colors,
+ * have the same number of solutions: a symmetry maps every move to a move
+ * (turning the other rows of an axis is the same move up to a rotation of
+ * the whole cube), and a cube is solved whatever its orientation or colors.
+ * Such cubes form a symmetry class, and only one of them, the canonical
+ * representative, needs to be searched.
+ *
+ * Tables are immutable and shared between all cubes of the same size.
+ *
+ */
+public final class Symmetry {
+
+    private static final int SIDES = MoveTable.SIDES;
+
+    /**
+     * Number of symmetries of a cube.
+     */
+    public static final int SYMMETRIES = 48;
+
+    private static final Symmetry[] tables = new Symmetry[16];
+
+    private final int size;
+
+    private final int stickers;
+
+    private final int[][] source;
+
+    /**
+     * Returns the (shared) symmetry table for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the symmetry table for this size
+     */
+    public static synchronized Symmetry forSize(int size) {
+        if (size >= tables.length) {
+            return new Symmetry(size);
+        }
+        if (tables[size] == null) {
+            tables[size] = new Symmetry(size);
+        }
+        return tables[size];
+    }
+
+    private Symmetry(int size) {
+        this.size = size;
+        this.stickers = SIDES * size * size;
+
+        // sticker at every position and normal
+        int[][] positions = new int[stickers][];
+        Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+        for (int sticker = 0; sticker < stickers; sticker++) {
+            positions[sticker] = position(sticker);
+            index.put(encode(positions[sticker]), sticker);
+        }
+
+        source = new int[SYMMETRIES][stickers];
+        int symmetry = 0;
+        for (int[] axes : AXIS_PERMUTATIONS) {
+            for (int signs = 0; signs < 8; signs++) {
+                for (int sticker = 0; sticker < stickers; sticker++) {
+                    int[] moved = transform(positions[sticker], axes, signs);
+                    source[symmetry][index.get(encode(moved))] = sticker;
+                }
+                symmetry++;
+            }
+        }
+    }
+
+    /**
+     * @return the size of the cube this table is meant for
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Permutation of a symmetry: after applying it, sticker i holds the
+     * sticker that was at source(symmetry)[i] before. Symmetry 0 is the
+     * identity. Must not be modified.
+     *
+     * @param symmetry
+     *            index of the symmetry, 0 <= symmetry < SYMMETRIES
+     * @return the source index of every sticker
+     */
+    public int[] source(int symmetry) {
+        return source[symmetry];
+    }
+
+    /**
+     * Computes the canonical representative of the symmetry class of a cube:
+     * of all symmetries of the cube, with the colors renamed in order of
+     * first appearance, the lexicographically smallest one. Cubes have the
+     * same representative if and only if they are in the same class.
+     *
+     * @param data
+     *            color of every sticker of the cube
+     * @return the stickers of the representative, colors 0 to SIDES - 1
+     */
+    public byte[] canonical(byte[] data) {
+        byte[] best = null;
+        byte[] candidate = new byte[stickers];
+        byte[] rename = new byte[SIDES];
+
+        for (int[] permutation : source) {
+            for (int color = 0; color < SIDES; color++) {
+                rename[color] = -1;
+            }
+            byte colors = 0;
+            // sign of candidate - best, so far
+            int compare = best == null ? -1 : 0;
+
+            for (int i = 0; i < stickers; i++) {
+                byte color = data[permutation[i]];
+                if (rename[color] < 0) {
+                    rename[color] = colors++;
+                }
+                candidate[i] = rename[color];
+                if (compare == 0) {
+                    compare = candidate[i] - best[i];
+                    if (compare > 0) {
+                        break;
+                    }
+                }
+            }
+
+            if (compare < 0) {
+                byte[] previous = best;
+                best = candidate;
+                candidate = previous == null ? new byte[stickers] : previous;
+            }
+        }
+        return best;
+    }
+
+    // *** Only private functions ahead. Geometry of the stickers, matching
+    // the twists of MoveTable ***\\
+
+    // the 6 orders of the x, y and z axes
+    private static final int[][] AXIS_PERMUTATIONS = { { 0, 1, 2 },
+            { 0, 2, 1 }, { 1, 0, 2 }, { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+
+    /*
+     * Position of a sticker as doubled coordinates relative to the center of
+     * the cube (x from left to right, y from top to bottom, z from front to
+     * back), followed by the normal of its side.
+     */
+    private int[] position(int sticker) {
+        int side = sticker / (size * size);
+        int row = (sticker % (size * size)) / size;
+        int column = sticker % size;
+        int last = size - 1;
+
+        int x, y, z;
+        int[] normal;
+        switch (side) {
+        case MoveTable.TOP:
+            x = column;
+            y = 0;
+            z = last - row;
+            normal = new int[] { 0, -1, 0 };
+            break;
+        case MoveTable.LEFT:
+            x = 0;
+            y = row;
+            z = last - column;
+            normal = new int[] { -1, 0, 0 };
+            break;
+        case MoveTable.FRONT:
+            x = column;
+            y = row;
+            z = 0;
+            normal = new int[] { 0, 0, -1 };
+            break;
+        case MoveTable.RIGHT:
+            x = last;
+            y = row;
+            z = column;
+            normal = new int[] { 1, 0, 0 };
+            break;
+        case MoveTable.BACK:
+            x = last - column;
+            y = row;
+            z = last;
+            normal = new int[] { 0, 0, 1 };
+            break;
+        default:
+            x = column;
+            y = last;
+            z = row;
+            normal = new int[] { 0, 1, 0 };
+            break;
+        }
+
+        return new int[] { 2 * x - last, 2 * y - last, 2 * z - last,
+                normal[0], normal[1], normal[2] };
+    }
+
+    /*
+     * Applies a symmetry, given as an order of the axes and a sign per axis,
+     * to both the position and the normal of a sticker.
+     */
+    private static int[] transform(int[] position, int[] axes, int signs) {
+        int[] result = new int[6];
+        for (int i = 0; i < 3; i++) {
+            int sign = ((signs >> i) & 1) == 0 ? 1 : -1;
+            result[i] = sign * position[axes[i]];
+            result[i + 3] = sign * position[axes[i] + 3];
+        }
+        return result;
+    }
+
+    private int encode(int[] position) {
+        int range = 2 * size + 1;
+        int result = 0;
+        for (int i = 0; i < 3; i++) {
+            result = result * range + position[i] + size;
+        }
+        for (int i = 3; i < 6; i++) {
+            result = result * 3 + position[i] + 1;
+        }
+        return result;
+    }
+}
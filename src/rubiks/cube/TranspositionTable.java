@@ -0,0 +1,150 @@
+package rubiks.cube;
+
+/**
+ * Bounded table of subtree solution counts, so a cube reached again by a
+ * different sequence of twists is not searched again. An entry is keyed by
+ * the Zobrist hash of the cube, the sequence state of the twists leading to
+ * it (see MoveTable.next) and the number of twists left before the bound,
+ * which together decide the count. Counts do not depend on the bound itself
+ * or on the (admissible) heuristic, so entries stay valid for every bound and
+ * can be shared by all searches of a process.
+ *
+ * The table is lock free: entries are stored as two longs, the key xor the
+ * data and the data itself. A reader only accepts an entry if both give back
+ * the key, so an entry torn by a concurrent write is simply a miss.
+ *
+ * Entries are grouped in buckets of two. With the DEPTH policy the first
+ * entry keeps the deepest subtree stored in the bucket, the second one is
+ * always replaced. With the ALWAYS policy a new entry simply replaces the
+ * old entry at its position.
+ *
+ */
+public final class TranspositionTable {
+
+    /**
+     * Replacement policy, when a new entry maps to a full bucket.
+     */
+    public enum Policy {
+        ALWAYS, DEPTH
+    }
+
+    /**
+     * Returned by get() if the table has no entry for a key.
+     */
+    public static final int MISS = -1;
+
+    // bytes taken by one entry: key xor data, and data
+    private static final int ENTRY_BYTES = 16;
+
+    // set in the data of every entry, so an empty entry never matches
+    private static final long USED = 1L << 62;
+
+    private final Policy policy;
+
+    private final long[] entries;
+
+    // index mask for buckets of two entries (four longs)
+    private final int mask;
+
+    /**
+     * Creates an empty table taking at most the given amount of memory.
+     *
+     * @param bytes
+     *            maximum memory used by the table, rounded down to a power of
+     *            two
+     * @param policy
+     *            replacement policy
+     */
+    public TranspositionTable(long bytes, Policy policy) {
+        this.policy = policy;
+
+        long buckets = Math.max(1, bytes / (2 * ENTRY_BYTES));
+        // the longs of the table must fit in one array
+        buckets = Math.min(Long.highestOneBit(buckets), 1 << 28);
+        this.entries = new long[(int) buckets * 4];
+        this.mask = (int) buckets - 1;
+    }
+
+    /**
+     * Number of entries of the table.
+     */
+    public int capacity() {
+        return entries.length / 2;
+    }
+
+    /**
+     * Computes the key of a subtree.
+     *
+     * @param hash
+     *            Zobrist hash of the cube at the top of the subtree
+     * @param sequence
+     *            state of the sequence of twists leading to the cube
+     * @param depth
+     *            number of twists left before the bound
+     * @return the key
+     */
+    public static long key(long hash, int sequence, int depth) {
+        // sequence states fit in 21 bits, so this is different for every
+        // sequence and depth
+        long z = hash ^ ((((long) sequence << 8) | depth) * 0x9e3779b97f4a7c15L);
+        // mix the bits (from splitMix64), the low ones select the bucket
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Looks up the solution count of a subtree.
+     *
+     * @param key
+     *            key of the subtree, see key()
+     * @return the count, or MISS
+     */
+    public int get(long key) {
+        int bucket = ((int) key & mask) * 4;
+        for (int i = bucket; i < bucket + 4; i += 2) {
+            long data = entries[i + 1];
+            if ((entries[i] ^ data) == key && (data & USED) != 0) {
+                return (int) data;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * Stores the solution count of a subtree.
+     *
+     * @param key
+     *            key of the subtree, see key()
+     * @param depth
+     *            number of twists left before the bound
+     * @param count
+     *            number of solutions in the subtree
+     */
+    public void put(long key, int depth, int count) {
+        long data = USED | ((long) depth << 32) | (count & 0xffffffffL);
+        int bucket = ((int) key & mask) * 4;
+
+        int i;
+        if (policy == Policy.ALWAYS) {
+            // one of the two entries, selected by a bit the bucket does not
+            // depend on
+            i = bucket + (int) ((key >>> 63) << 1);
+        } else {
+            long deepest = entries[bucket + 1];
+            if ((deepest & USED) == 0 || depth >= depth(deepest)
+                    || (entries[bucket] ^ deepest) == key) {
+                i = bucket;
+            } else {
+                i = bucket + 2;
+            }
+        }
+        // write the data first, so a reader in between sees a torn entry
+        entries[i + 1] = data;
+        entries[i] = key ^ data;
+    }
+
+    private static int depth(long data) {
+        return (int) (data >>> 32) & 0xff;
+    }
+}
@@ -0,0 +1,151 @@
+package rubiks.cube;
+
+import java.util.Random;
+
+/**
+ * Zobrist hashing of cubes: a random 64 bit key for every color of every
+ * sticker, the hash of a cube is the xor of the keys of its stickers. Keys are
+ * generated from a fixed seed, so every node of a pool computes the same hash
+ * for the same cube.
+ *
+ * As a twist only changes the stickers it moves, the hash of a twisted cube is
+ * derived from the hash before the twist by replacing the keys of the moved
+ * stickers only, see twist().
+ *
+ * Key sets are immutable and shared between all cubes of the same size.
+ *
+ */
+public final class Zobrist {
+
+    private static final int SIDES = MoveTable.SIDES;
+
+    private static final long SEED = 0x5a6f6272697374L;
+
+    private static final Zobrist[] keySets = new Zobrist[16];
+
+    private final int stickers;
+
+    // key of sticker i with color c at i * SIDES + c
+    private final long[] keys;
+
+    /**
+     * Returns the (shared) keys for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the keys for this size
+     */
+    public static synchronized Zobrist forSize(int size) {
+        if (size >= keySets.length) {
+            return new Zobrist(size);
+        }
+        if (keySets[size] == null) {
+            keySets[size] = new Zobrist(size);
+        }
+        return keySets[size];
+    }
+
+    private Zobrist(int size) {
+        this.stickers = SIDES * size * size;
+        this.keys = new long[stickers * SIDES];
+
+        Random random = new Random(SEED + size);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Key of a sticker with a color.
+     *
+     * @param sticker
+     *            index of the sticker (side * size * size + element)
+     * @param color
+     *            color of the sticker
+     * @return the key
+     */
+    public long key(int sticker, int color) {
+        return keys[sticker * SIDES + color];
+    }
+
+    /**
+     * Hash of a cube in the unpacked representation.
+     *
+     * @param data
+     *            color of every sticker
+     * @return the hash
+     */
+    public long hash(byte[] data) {
+        long hash = 0;
+        for (int i = 0; i < stickers; i++) {
+            hash ^= keys[i * SIDES + data[i]];
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of a cube in the packed representation, see PackedLayout.
+     *
+     * @param words
+     *            packed stickers
+     * @return the hash
+     */
+    public long hash(long[] words) {
+        long hash = 0;
+        for (int i = 0; i < stickers; i++) {
+            hash ^= keys[i * SIDES + PackedLayout.get(words, i)];
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of a cube after a move, from the hash before it. Only the moved
+     * stickers are looked at.
+     *
+     * @param hash
+     *            hash of the cube before the move
+     * @param table
+     *            move table for the size of the cube
+     * @param move
+     *            index of the move
+     * @param from
+     *            stickers of the cube before the move
+     * @return the hash after the move
+     */
+    public long twist(long hash, MoveTable table, int move, byte[] from) {
+        int[] source = table.source(move);
+        int[] moved = table.moved(move);
+        for (int j = 0; j < moved.length; j++) {
+            int i = moved[j];
+            int base = i * SIDES;
+            hash ^= keys[base + from[i]] ^ keys[base + from[source[i]]];
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of a packed cube after a move, from the hash before it. Only the
+     * moved stickers are looked at.
+     *
+     * @param hash
+     *            hash of the cube before the move
+     * @param table
+     *            move table for the size of the cube
+     * @param move
+     *            index of the move
+     * @param from
+     *            packed stickers of the cube before the move
+     * @return the hash after the move
+     */
+    public long twist(long hash, MoveTable table, int move, long[] from) {
+        int[] source = table.source(move);
+        int[] moved = table.moved(move);
+        for (int j = 0; j < moved.length; j++) {
+            int i = moved[j];
+            int base = i * SIDES;
+            hash ^= keys[base + PackedLayout.get(from, i)]
+                    ^ keys[base + PackedLayout.get(from, source[i])];
+        }
+        return hash;
+    }
+}
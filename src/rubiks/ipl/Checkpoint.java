@@ -0,0 +1,184 @@
+package rubiks.ipl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Search state of the master of a ConcurrentSolver, saved so a solve can be
+ * resumed after the pool was lost. All bounds below the bound of the
+ * checkpoint had no solutions. For the round of that bound, the checkpoint
+ * has the number of solutions of every job that is complete, the other jobs
+ * are searched again.
+ *
+ * The jobs themselves are not saved. They are generated again from the cube,
+ * which is checked by its Zobrist hash, with the same minimum number of jobs,
+ * so the jobs are the same whatever the size of the new pool.
+ *
+ * A checkpoint is written under a temporary name first and then renamed, so a
+ * crash while writing leaves the previous one.
+ */
+public class Checkpoint {
+
+    /**
+     * Solutions of a job that is not complete.
+     */
+    public static final int INCOMPLETE = -1;
+
+    private static final int MAGIC = 0x52434b01;
+
+    private final int size;
+
+    private final long cube;
+
+    private final int minimum;
+
+    private final int bound;
+
+    private final int[] solutions;
+
+    /**
+     * Creates a checkpoint.
+     *
+     * @param cube
+     *            the cube being solved
+     * @param minimum
+     *            minimum number of jobs the jobs were generated with
+     * @param bound
+     *            bound of the current round
+     * @param solutions
+     *            solutions of every job of the round, INCOMPLETE if the job
+     *            is not complete
+     */
+    public Checkpoint(Cube cube, int minimum, int bound, int[] solutions) {
+        this(cube.getSize(), cube.zobrist(), minimum, bound, solutions);
+    }
+
+    private Checkpoint(int size, long cube, int minimum, int bound,
+            int[] solutions) {
+        this.size = size;
+        this.cube = cube;
+        this.minimum = minimum;
+        this.bound = bound;
+        this.solutions = solutions;
+    }
+
+    /**
+     * @return the minimum number of jobs to generate, see
+     *         ConcurrentSolver.generateJobs()
+     */
+    public int getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * @return the bound of the round to resume
+     */
+    public int getBound() {
+        return bound;
+    }
+
+    /**
+     * Solutions of every job of the round. Must not be modified.
+     *
+     * @return the solutions of every job, INCOMPLETE if it is not complete
+     */
+    public int[] getSolutions() {
+        return solutions;
+    }
+
+    /**
+     * Checks if this checkpoint was written for a cube.
+     *
+     * @param cube
+     *            the cube to solve
+     * @throws IOException
+     *             if it was not
+     */
+    public void check(Cube cube) throws IOException {
+        if (cube.getSize() != size || cube.zobrist() != this.cube) {
+            throw new IOException("checkpoint is for another cube");
+        }
+    }
+
+    /**
+     * Checks if this checkpoint has the jobs generated from its cube.
+     *
+     * @param jobs
+     *            number of jobs generated from the cube
+     * @throws IOException
+     *             if it has not
+     */
+    public void checkJobs(int jobs) throws IOException {
+        if (jobs != solutions.length) {
+            throw new IOException("checkpoint has " + solutions.length
+                    + " jobs, generated " + jobs);
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by write().
+     *
+     * @param file
+     *            file to read
+     * @return the checkpoint
+     * @throws IOException
+     *             if the file cannot be read, or is not a checkpoint
+     */
+    public static Checkpoint read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int size = in.readInt();
+            long cube = in.readLong();
+            int minimum = in.readInt();
+            int bound = in.readInt();
+            int[] solutions = new int[in.readInt()];
+            for (int i = 0; i < solutions.length; i++) {
+                solutions[i] = in.readInt();
+            }
+            return new Checkpoint(size, cube, minimum, bound, solutions);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes this checkpoint to a file, replacing the previous one.
+     *
+     * @param file
+     *            file to write to
+     * @throws IOException
+     *             in case of trouble
+     */
+    public void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeLong(cube);
+            out.writeInt(minimum);
+            out.writeInt(bound);
+            out.writeInt(solutions.length);
+            for (int count : solutions) {
+                out.writeInt(count);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)
+                && !(file.delete() && temporary.renameTo(file))) {
+            throw new IOException("cannot rename " + temporary + " to " + file);
+        }
+    }
+}
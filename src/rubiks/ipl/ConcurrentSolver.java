@@ -2,34 +2,109 @@ package rubiks.ipl;
 
 import ibis.ipl.*;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.CacheRequest;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class ConcurrentSolver implements MessageUpcall{
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.SearchStatistics;
+import rubiks.cube.TranspositionTable;
+
+/**
+ * Solver with a central job queue on the master. Slaves fetch jobs from the
+ * master, and report their results with their next request. A job that
+ * takes long is split up into its children when the queue runs empty.
+ *
+ * Every piece of work handed out (a job, or a child of a split up job)
+ * carries the index of the job of the round it belongs to, and results are
+ * reported per piece. The master counts the pieces left of every job, so it
+ * knows which jobs are complete, and can save them in a checkpoint (see
+ * Checkpoint) to resume from after the pool was lost.
+ *
+ * Every piece also has an id of its own. The master keeps the pieces handed
+ * out to every slave until their results come in. When a slave dies or
+ * leaves before it was told to stop, its pieces are queued again, and
+ * results it still reports are dropped, so they are not counted twice.
+ */
+public class ConcurrentSolver implements Solver, MessageUpcall, RegistryEventHandler {
     public static final boolean PRINT_SOLUTION = false;
-    private static final Integer MAX_HOPS = 1;
+
+    /**
+     * Number of jobs generated per search thread in the pool, so every thread
+     * gets several jobs and the differences in cost between jobs even out
+     */
+    static final int JOBS_PER_THREAD = 4;
+
+    /**
+     * Maximum depth the master expands the cube to when generating jobs
+     */
+    static final int MAX_JOB_DEPTH = 4;
+
+    /**
+     * Minimum number of twists left before the bound of a job to split it up.
+     * Splitting up a job throws away the work done on it, which is not worth
+     * it for small subtrees.
+     */
+    static final int MIN_SPLIT_LEVELS = 3;
+
+    /**
+     * Maximum time (in milliseconds) a slave waits for news from the master
+     * before asking for a job again, when the master had none left
+     */
+    private static final long RETRY_DELAY = 1000;
+
+    /**
+     * Number of jobs a slave keeps queued per search thread, so threads do not
+     * wait for a round trip to the master when they finish a job
+     */
+    private static final int PREFETCH_PER_THREAD = 2;
+
+    /**
+     * Number of threads sending the replies of the master. A slow connection
+     * to one slave only holds up one of them.
+     */
+    private static final int SENDER_THREADS = 4;
 
     /**
      * Port type is used for sending a request to the master
      */
     PortType requestPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
-            PortType.SERIALIZATION_OBJECT, PortType.RECEIVE_AUTO_UPCALLS,
+            PortType.SERIALIZATION_DATA, PortType.RECEIVE_AUTO_UPCALLS,
             PortType.CONNECTION_MANY_TO_ONE);
 
     /**
      * Port type is used for sending a reply back
      */
     PortType replyPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
-            PortType.SERIALIZATION_OBJECT, PortType.RECEIVE_EXPLICIT,
+            PortType.SERIALIZATION_DATA, PortType.RECEIVE_EXPLICIT,
             PortType.CONNECTION_MANY_TO_ONE);
 
 
     /**
-     * Port type is used for sending new found bound from the master to slave
+     * Port type is used for sending news from the master to all slaves: a new
+     * bound round, new jobs, or a request to split up jobs
      */
     PortType slaveBroadcastPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
             PortType.SERIALIZATION_DATA, PortType.RECEIVE_AUTO_UPCALLS,
@@ -39,279 +114,1402 @@ public class ConcurrentSolver implements MessageUpcall{
      * Ibis identifier of the master node
      */
     IbisIdentifier master = null;
-    private long minimumBound = Integer.MAX_VALUE - MAX_HOPS;
 
     IbisCapabilities ibisCapabilities = new IbisCapabilities(
-            IbisCapabilities.ELECTIONS_STRICT);
+            IbisCapabilities.ELECTIONS_STRICT, IbisCapabilities.CLOSED_WORLD,
+            IbisCapabilities.MEMBERSHIP_TOTALLY_ORDERED);
     private Ibis myIbis = null;
-    private Queue<Cube> jobQueue;
-    private int solutionsNum = 0;
-    long solutionsStep = Integer.MAX_VALUE - MAX_HOPS;
-    long startTime, endTime;
-    long jobsTotal = 0;
-    /**
-     * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
-     *
-     * @param cube
-     *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
-     * @return the number of solutions found
+    private Queue<Work> jobQueue;
+    private final AtomicInteger solutionsNum = new AtomicInteger();
+    int solutionsStep = 0;
+    final AtomicLong jobsTotal = new AtomicLong();
+
+    /**
+     * Jobs searched in every bound round: the cube expanded to jobDepth
+     * twists
      */
-    private int solutions(Cube cube, CubeCache cache) {
-        if (cube.isSolved()) {
-            return 1;
+    private List<Cube> jobs;
+    private int jobDepth;
+
+    /**
+     * Minimum number of jobs the jobs were generated with, see
+     * generateJobs()
+     */
+    private int jobMinimum;
+
+    /**
+     * Per job of the round: the number of its pieces (the job itself, or the
+     * children it was split up into) not done yet, and the solutions of the
+     * pieces that are. A job is complete once no pieces are left.
+     */
+    private AtomicIntegerArray piecesLeft;
+    private AtomicIntegerArray jobSolutions;
+
+    /**
+     * File the master saves its state to, and the time (in milliseconds)
+     * between saves, and the state to resume from, or null.
+     */
+    private File checkpointFile = null;
+    private long checkpointInterval = 0;
+    private Checkpoint resume = null;
+
+    /**
+     * Copy of the cube solved by the master, checkpoints are only valid for
+     * it
+     */
+    private Cube rootCube;
+
+    /**
+     * Set by the master when a solution has been found, and the slaves can
+     * stop
+     */
+    private volatile boolean finished = false;
+
+    /**
+     * Slaves the master has told to stop, or lost. A slave is only counted
+     * once, whichever comes first.
+     */
+    private final Set<IbisIdentifier> slavesGone = Collections
+            .newSetFromMap(new ConcurrentHashMap<IbisIdentifier, Boolean>());
+
+    /**
+     * Pieces handed out by the master to every slave, by their id, until
+     * their result or split comes in. Also guards the handing out of pieces
+     * against the loss of a slave.
+     */
+    private final Map<IbisIdentifier, Map<Integer, Work>> inFlight = new HashMap<IbisIdentifier, Map<Integer, Work>>();
+
+    /**
+     * Id of the next piece of work created by the master
+     */
+    private final AtomicInteger nextPiece = new AtomicInteger();
+
+    /**
+     * Port the master broadcasts news to all slaves with, and the queue of
+     * news and new slaves to connect to it
+     */
+    private SendPort informPort;
+    private Outbox informOutbox;
+
+    /**
+     * Ports the master replies to job requests with, one per slave, kept
+     * connected for the whole run, and the queues of replies for them
+     */
+    private final ConcurrentMap<IbisIdentifier, SendPort> replyPorts = new ConcurrentHashMap<IbisIdentifier, SendPort>();
+    private final ConcurrentMap<IbisIdentifier, Outbox> outboxes = new ConcurrentHashMap<IbisIdentifier, Outbox>();
+
+    /**
+     * Threads sending the messages queued in the outboxes of the master
+     */
+    private ExecutorService senders;
+
+    /**
+     * Set by the master when a slave was told to wait since the last
+     * broadcast of new jobs
+     */
+    private final AtomicBoolean slavesWaiting = new AtomicBoolean();
+
+    /**
+     * Set by the master while one node has been asked to split up a job, and
+     * neither the children nor a refusal are in. The node asked, and the
+     * nodes which refused since the last children came in.
+     */
+    private final AtomicBoolean splitRequested = new AtomicBoolean();
+    private volatile IbisIdentifier splitNode = null;
+    private final Set<IbisIdentifier> splitRefusers = Collections
+            .newSetFromMap(new ConcurrentHashMap<IbisIdentifier, Boolean>());
+
+    /**
+     * Number of broadcasts received by a slave
+     */
+    private int informs = 0;
+    private Heuristic heuristic = null;
+    private TranspositionTable transpositions = null;
+    private int threads = 1;
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Name of this node in the metrics
+     */
+    private String name;
+
+    /**
+     * Cache the master expands split jobs of slaves with
+     */
+    private CubeCache splitCache;
+
+    /**
+     * Jobs received by a slave, but not taken by a search thread yet
+     */
+    private BlockingDeque<MessageObject> localJobs;
+
+    /**
+     * Jobs finished by a slave (the id of their piece and their solutions),
+     * and the statistics of searching them, not reported to the master yet.
+     * Sent along with the next job request.
+     */
+    private List<Pair<Integer, Integer>> results = new ArrayList<Pair<Integer, Integer>>();
+    private SearchStatistics resultsStatistics = new SearchStatistics();
+
+    /**
+     * Port a slave sends results and requests to the master with, shared by
+     * the network thread and all search threads
+     */
+    private SendPort masterPort;
+
+    /**
+     * Search threads of this node
+     */
+    private SearchThread[] searchThreads;
+
+    /**
+     * A cube to search, the id of this piece of work, and the index of the
+     * job of the round it is part of.
+     */
+    private static final class Work {
+
+        final int piece;
+
+        final int job;
+
+        final Cube cube;
+
+        Work(int piece, int job, Cube cube) {
+            this.piece = piece;
+            this.job = job;
+            this.cube = cube;
         }
+    }
+
+    /**
+     * Search thread. Takes jobs until there are no more, and reports the
+     * result of each job.
+     */
+    private abstract class SearchThread extends Thread {
+
+        // search state is allocated once, and reused for every bound and
+        // every job. Doing new Cube() for every move overloads the garbage
+        // collector
+        private Search search = null;
+
+        private CubeCache cache = null;
+
+        // number of the search of the job being solved (see
+        // Search.getSearches()), 0 if none, and its cube. Guarded by the
+        // thread, so a split is never asked of a search that already ended
+        private int running = 0;
 
-        if (cube.getTwists() >= cube.getBound()) {
-            return 0;
+        private Cube cube = null;
+
+        // number of the search asked to split up its job
+        private int splitting = 0;
+
+        private IOException error = null;
+
+        SearchThread() {
+            super("search thread");
         }
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        /**
+         * Returns the next job to solve, or null if there are no more.
+         */
+        abstract Work nextJob() throws InterruptedException;
 
-        int result = 0;
+        /**
+         * Reports the result of a job.
+         */
+        abstract void jobDone(Work work, Pair<Integer, Integer> res) throws IOException;
 
-        for (Cube child : children) {
-            if(cube.getBound() > minimumBound){
-                return -1; // dynamic pruning the job
-            }
-            // recursion step
-            int childSolutions = solutions(child, cache);
-            if (childSolutions > 0) {
-                result += childSolutions;
-                if (PRINT_SOLUTION) {
-                    child.print(System.err);
-                }
+        /**
+         * Hands out the children of a job which was split up, instead of
+         * reporting its result.
+         */
+        abstract void jobSplit(Work work) throws IOException;
+
+        /**
+         * Adds the statistics of searching a job, before its result is
+         * reported.
+         */
+        abstract void addStatistics(SearchStatistics statistics);
+
+        /**
+         * Tells the master the job this thread was asked to split up ended
+         * before the search noticed.
+         */
+        abstract void splitRefused() throws IOException;
+
+        /**
+         * Returns the children of a job.
+         */
+        Cube[] children(Cube cube) {
+            return cube.generateChildren(cache);
+        }
+
+        /**
+         * Returns the number of twists left before the bound of the job this
+         * thread is working on, -1 if none.
+         */
+        synchronized int levelsLeft() {
+            return running == 0 ? -1 : cube.getBound() - cube.getTwists();
+        }
+
+        /**
+         * Asks this thread to split up the job it is working on. Once asked,
+         * the children of the job are handed out, or splitRefused() is called
+         * if the job ended before the search noticed.
+         *
+         * @return false if the thread is not working on a job that can be
+         *         split up
+         */
+        synchronized boolean split() {
+            if (levelsLeft() < MIN_SPLIT_LEVELS) {
+                return false;
             }
-            // put child object in cache
-            cache.put(child);
+            splitting = running;
+            search.abort(running);
+            return true;
         }
 
-        return result;
+        public void run() {
+            try {
+                Work work;
+                while ((work = nextJob()) != null) {
+                    Cube cube = work.cube;
+                    if (search == null) {
+                        search = new Search(cube.getSize(), PRINT_SOLUTION);
+                        search.setHeuristic(heuristic);
+                        search.setTranspositionTable(transpositions);
+                        cache = new CubeCache(cube.getSize());
+                    }
+                    int number = search.getSearches() + 1;
+                    synchronized (this) {
+                        this.cube = cube;
+                        running = number;
+                    }
+                    long start = System.nanoTime();
+                    Pair<Integer, Integer> res = solve(cube, search);
+                    boolean refused;
+                    synchronized (this) {
+                        this.cube = null;
+                        running = 0;
+                        refused = res != null && splitting == number;
+                    }
+                    SearchStatistics statistics = search.takeStatistics();
+                    if (res != null) {
+                        statistics.addJob(System.nanoTime() - start);
+                    }
+                    addStatistics(statistics);
+                    if (res == null) {
+                        jobSplit(work);
+                    } else {
+                        jobDone(work, res);
+                        if (refused) {
+                            splitRefused();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop searching
+            } catch (IOException e) {
+                error = e;
+            }
+        }
     }
 
     /**
-     * Solves a Rubik's cube by iteratively searching for solutions with a
-     * greater depth. This guarantees the optimal solution is found. Repeats all
-     * work for the previous iteration each iteration though...
-     *
-     * @param cube
-     *            the cube to solve
+     * Search thread of a slave. Takes jobs from the local queue until it gets
+     * the message telling there are no more jobs. Results are handed to the
+     * main thread, which sends them to the master with its next request.
      */
-    private Pair<Integer, Integer> solve(Cube cube) {
-        // cache used for cube objects. Doing new Cube() for every move
-        // overloads the garbage collector
-        CubeCache cache = new CubeCache(cube.getSize());
-        int bound = 0;
-        int result = 0;
-        cube.dropTwists();
-        System.out.print("Bound now:");
+    private class SlaveSearchThread extends SearchThread {
 
-        while (result == 0) {
-            bound++;
-            cube.setBound(bound);
-            if(bound > minimumBound){
-                return new Pair<Integer, Integer>(0, 0); // pruning the job
+        Work nextJob() throws InterruptedException {
+            MessageObject job = localJobs.takeFirst();
+            if (job.messageType != MessageObject.message_id.JOB_CUBE) {
+                // no more jobs, leave it for the other threads
+                localJobs.addFirst(job);
+                return null;
+            }
+            synchronized (ConcurrentSolver.this) {
+                // there is room in the queue now
+                ConcurrentSolver.this.notifyAll();
+            }
+            return (Work) job.data;
+        }
+
+        void jobDone(Work work, Pair<Integer, Integer> res) {
+            synchronized (ConcurrentSolver.this) {
+                results.add(new Pair<Integer, Integer>(work.piece, res.getKey()));
+                ConcurrentSolver.this.notifyAll();
+            }
+        }
+
+        void addStatistics(SearchStatistics statistics) {
+            metrics.add(name, statistics);
+            synchronized (ConcurrentSolver.this) {
+                resultsStatistics.add(statistics);
             }
-            System.err.print(" " + bound);
-            result = solutions(cube, cache);
         }
 
-        System.err.println();
-        System.out.println("Solving cube possible in " + result + " ways of "
-                + bound + " steps");
-        if(result > 0)
-            return new Pair<Integer, Integer>(result, bound);
-        else
-            return new Pair<Integer, Integer>(0, 0); // job is pruned
+        void jobSplit(Work work) throws IOException {
+            // children go to the master, so any node can take them. The
+            // master still has the piece, and generates them itself
+            synchronized (masterPort) {
+                WriteMessage request = masterPort.newMessage();
+                MessageObject.writeType(request, MessageObject.message_id.JOB_SPLIT);
+                request.writeInt(work.piece);
+                request.finish();
+            }
+        }
+
+        void splitRefused() throws IOException {
+            refuseSplit();
+        }
     }
 
+    /**
+     * Search thread of the master. Takes jobs from the same queue the slaves
+     * steal from, so the master node searches too instead of only
+     * dispatching jobs.
+     */
+    private class MasterSearchThread extends SearchThread {
 
-    public void run(Cube cube) throws IbisCreationFailedException, IOException, ClassNotFoundException {
-        myIbis = IbisFactory.createIbis(ibisCapabilities, null,
-                requestPortType, replyPortType);
+        Work nextJob() throws InterruptedException {
+            return takeJob();
+        }
+
+        void jobDone(Work work, Pair<Integer, Integer> res) {
+            addResult(work.job, res.getKey());
+        }
+
+        void jobSplit(Work work) {
+            addJobs(work.job, children(work.cube));
+        }
+
+        void splitRefused() {
+            ConcurrentSolver.this.splitRefused(myIbis.identifier());
+        }
+
+        void addStatistics(SearchStatistics statistics) {
+            metrics.add(name, statistics);
+        }
+    }
+
+    /**
+     * Sets the heuristic used to prune the search of every job.
+     *
+     * @param heuristic
+     *            pattern databases to use, or null
+     */
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Sets the table subtree counts are stored in and looked up from, shared
+     * by the search threads of this node.
+     *
+     * @param transpositions
+     *            table to use, or null
+     */
+    public void setTranspositionTable(TranspositionTable transpositions) {
+        this.transpositions = transpositions;
+    }
+
+    /**
+     * Sets the number of search threads of each slave.
+     *
+     * @param threads
+     *            number of threads searching jobs in parallel
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the metrics the statistics of the searches of this node are added
+     * to. The master also adds the statistics reported by the slaves, the
+     * time of every bound and the time it takes to reply to a job request.
+     *
+     * @param metrics
+     *            metrics of this node
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes the master save its state to a file every given number of
+     * milliseconds, and at the start and end of every round. Must be called
+     * before run().
+     *
+     * @param file
+     *            file to save the state to
+     * @param interval
+     *            time between saves, in milliseconds
+     * @param resume
+     *            state to resume from, checked against the cube to solve
+     *            (see Checkpoint.check()), or null to start from scratch
+     */
+    public void setCheckpoint(File file, long interval, Checkpoint resume) {
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+        this.resume = resume;
+    }
+
+    /**
+     * Counts the solutions of a job within its bound.
+     *
+     * @param cube
+     *            the job to solve
+     * @param search
+     *            search state of the calling thread
+     * @return number of solutions and the bound, or null if the search was
+     *         aborted to split up the job
+     */
+    private Pair<Integer, Integer> solve(Cube cube, Search search) {
+        int result = search.solutions(cube);
+        if (result == Search.ABORTED) {
+            return null;
+        }
+        return new Pair<Integer, Integer>(result, cube.getBound());
+    }
+
+    /**
+     * Joins the pool, and elects the master. Must be called before run().
+     *
+     * @return true if this node is the master
+     */
+    public boolean init() throws IbisCreationFailedException, IOException {
+        myIbis = IbisFactory.createIbis(ibisCapabilities, this,
+                requestPortType, replyPortType, slaveBroadcastPortType);
+        myIbis.registry().enableEvents();
         master = myIbis.registry().elect("Master");
-        if (master.equals(myIbis.identifier())) { //  I AM MASTER
-            CubeCache cubeCache = new CubeCache((int) Math.pow(cube.getSize(), MAX_HOPS));
-	        jobQueue = new ConcurrentLinkedQueue<Cube>(generateJobs(cube, MAX_HOPS, cubeCache));
-            jobsTotal = jobQueue.size();
-            System.out.println("MASTER NODE:  jobs number is <" + jobsTotal + ">");
-                startTime = System.currentTimeMillis();
+        name = myIbis.identifier().name();
+        return master.equals(myIbis.identifier());
+    }
 
-            try {
-                masterProc();
-                System.out.println("MASTER IS DONE with results [" + solutionsStep + ": " + solutionsNum + "]");
+    /**
+     * Solves a cube with the whole pool. The master prints the bounds tried
+     * and the solutions found, like the sequential version.
+     *
+     * @param cube
+     *            the cube to solve
+     */
+    public void run(Cube cube) throws IOException, ClassNotFoundException {
+        if (master.equals(myIbis.identifier())) { //  I AM MASTER
+            CubeCache cubeCache = new CubeCache(cube.getSize());
+            // enough jobs to keep every thread of the pool busy, or the jobs
+            // of the checkpoint we resume from
+            int poolThreads = myIbis.registry().getPoolSize() * threads;
+            jobMinimum = resume == null ? poolThreads * JOBS_PER_THREAD
+                    : resume.getMinimum();
+            jobs = generateJobs(cube, jobMinimum, cubeCache);
+            // the slaves are waiting for jobs by now, so they are told to
+            // stop before the error is thrown
+            IOException failure = null;
+            if (resume != null) {
                 try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    resume.checkJobs(jobs.size());
+                } catch (IOException e) {
+                    failure = e;
                 }
-                System.out.println("MASTER IS KILLED...");
-            } catch (InterruptedException e) {}
+            }
+            jobDepth = jobs.get(0).getTwists();
+            piecesLeft = new AtomicIntegerArray(jobs.size());
+            jobSolutions = new AtomicIntegerArray(jobs.size());
+            jobQueue = new ConcurrentLinkedQueue<Work>();
+            rootCube = new Cube(cube);
+            splitCache = cubeCache;
+            System.err.println("MASTER NODE:  jobs number is <" + jobs.size() + ">");
+
+            try {
+                masterProc(cube, failure == null);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while solving", e);
+            }
+            if (failure != null) {
+                myIbis.end();
+                throw failure;
+            }
+            System.out.println("Solving cube possible in " + solutionsNum.get()
+                    + " ways of " + solutionsStep + " steps");
         } else { // I AM SLAVE
             slaveProc(master);
-            System.out.println("SLAVE IS DONE...");
+            System.err.println("SLAVE IS DONE...");
         }
+        myIbis.end();
     }
 
     /**
-     * Main procedure of master node. This is basically a job dispatcher.
+     * Main procedure of master node. Searches with a growing bound, one round
+     * per bound. In each round the jobs are handed out to slaves by the
+     * upcall, while a number of search threads solve jobs from the same queue.
+     * Once a round has solutions, the slaves are told to stop.
+     *
+     * @param solve
+     *            false to only tell the slaves to stop, without searching
      */
-    private void masterProc() throws IOException, InterruptedException {
+    private void masterProc(Cube cube, boolean solve) throws IOException, InterruptedException {
         ReceivePort receiver = myIbis.createReceivePort(requestPortType,
                 "server", this);
+        informPort = myIbis.createSendPort(slaveBroadcastPortType);
+        informOutbox = new Outbox();
+        senders = Executors.newFixedThreadPool(SENDER_THREADS);
 
         synchronized(this){
             // Enablings incoming connections have to be in synchronized block, obviously
             receiver.enableConnections();
             receiver.enableMessageUpcalls();
-            while(jobQueue.size() > 0)
+        }
+
+        searchThreads = new SearchThread[threads];
+        for (int i = 0; i < threads; i++) {
+            searchThreads[i] = new MasterSearchThread();
+            searchThreads[i].start();
+        }
+
+        // bounds up to the depth of the jobs are searched from the cube
+        // itself, the jobs are too deep for them
+        Search search = new Search(cube.getSize(), PRINT_SOLUTION);
+        search.setHeuristic(heuristic);
+        search.setTranspositionTable(transpositions);
+        int bound = 0;
+        int result = 0;
+
+        if (solve) {
+            // bounds below the one of the checkpoint had no solutions
+            int first = resume == null ? 1 : resume.getBound();
+            Timer checkpoints = null;
+            if (checkpointFile != null) {
+                checkpoints = new Timer("checkpoint", true);
+                checkpoints.schedule(new TimerTask() {
+                    public void run() {
+                        checkpoint();
+                    }
+                }, checkpointInterval, checkpointInterval);
+            }
+
+            System.out.print("Bound now:");
+
+            while (result == 0) {
+                bound++;
+                System.out.print(" " + bound);
+                if (bound < first) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (bound <= jobDepth) {
+                    cube.setBound(bound);
+                    result = search.solutions(cube);
+                    metrics.add(name, search.takeStatistics());
+                } else {
+                    result = round(bound);
+                }
+                metrics.boundDone(bound, System.nanoTime() - start);
+            }
+
+            System.out.println();
+
+            if (checkpoints != null) {
+                // the last round is complete, resuming from it gives the result
+                checkpoints.cancel();
+                checkpoint();
+            }
+        }
+
+        synchronized(this){
+            solutionsNum.set(result);
+            solutionsStep = bound;
+            finished = true;
+            notifyAll();
+            // wake up waiting slaves, so they come and get told to stop
+            inform(0, null);
+            // every slave has to be told (or be lost) before we leave the pool
+            while(slavesGone.size() < myIbis.registry().getPoolSize() - 1)
                 this.wait();
         }
+
+        for (SearchThread searchThread : searchThreads) {
+            searchThread.join();
+        }
+        // nothing is queued any more once every slave has been told to stop,
+        // wait until it has all been sent
+        senders.shutdown();
+        senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        informPort.close();
+        for (SendPort replyPort : replyPorts.values()) {
+            replyPort.close();
+        }
+        receiver.close();
     }
 
     /**
-     * Main procedure of slave node. This is basically a job stealer.
+     * Searches all jobs with the given bound, using every thread of the pool.
+     * Returns when the results of all jobs (and the jobs split off from them)
+     * are in.
+     *
+     * @return the number of solutions found
+     */
+    private synchronized int round(int bound) throws InterruptedException {
+        solutionsNum.set(0);
+        // jobs that are complete in the checkpoint we resume from are not
+        // searched again
+        int[] complete = resume != null && resume.getBound() == bound ? resume
+                .getSolutions() : null;
+        List<Work> work = new ArrayList<Work>();
+        for (int i = 0; i < jobs.size(); i++) {
+            jobs.get(i).setBound(bound);
+            if (complete != null && complete[i] != Checkpoint.INCOMPLETE) {
+                piecesLeft.set(i, 0);
+                jobSolutions.set(i, complete[i]);
+                solutionsNum.addAndGet(complete[i]);
+            } else {
+                piecesLeft.set(i, 1);
+                jobSolutions.set(i, 0);
+                work.add(newWork(i, jobs.get(i)));
+            }
+        }
+        // counted before they can be taken, the count must not drop below 0
+        jobsTotal.set(work.size());
+        splitRequested.set(false);
+        splitNode = null;
+        splitRefusers.clear();
+        slavesWaiting.set(false);
+        jobQueue.addAll(work);
+        notifyAll();
+        inform(bound, null);
+        if (checkpointFile != null) {
+            checkpoint();
+        }
+
+        while(jobsTotal.get() > 0)
+            this.wait();
+        return solutionsNum.get();
+    }
+
+    /**
+     * Main procedure of slave node. This is basically a job stealer. The main
+     * thread fetches jobs from the master into a local queue, and a number of
+     * search threads solve them. Jobs are requested before the queue runs
+     * empty, so the search threads never wait for the network. Every request
+     * asks for enough jobs to fill up the queue, and carries the results of
+     * the jobs finished since the previous one.
      */
     private void slaveProc(IbisIdentifier masterNode) throws IOException, ClassNotFoundException {
-        // Sending first JOB_STEALING request
-        SendPort sendPort = myIbis.createSendPort(requestPortType);
-        sendPort.connect(masterNode, "server");
-        ReceivePort receivePort = myIbis.createReceivePort(replyPortType, null);
+        masterPort = myIbis.createSendPort(requestPortType);
+        masterPort.connect(masterNode, "server");
+        // the master replies to the port named "reply" of the node a
+        // request came from
+        ReceivePort receivePort = myIbis.createReceivePort(replyPortType, "reply");
         receivePort.enableConnections();
-        WriteMessage request = sendPort.newMessage();
-        MessageObject jobRequest = new MessageObject();
-        jobRequest.messageType = MessageObject.message_id.JOB_STEALING;
-        jobRequest.requestor = receivePort.identifier();
-        request.writeObject(jobRequest);
-        request.finish();
-
-        MessageObject localSolutionResult = new MessageObject();
-        localSolutionResult.messageType = MessageObject.message_id.JOB_RESULT;
-        localSolutionResult.requestor = receivePort.identifier();
-
-        ReadMessage reply = receivePort.receive();
-        MessageObject job = (MessageObject)reply.readObject();
-        reply.finish();
-        while(job.messageType == MessageObject.message_id.JOB_CUBE){ // we (still) have work to do
-            if(job.data == null){
-                System.err.println("Something went wrong for the slave node [" + myIbis.identifier() + "]; MessageType is " +
-                        "JOB_CUBE, but no payload is presented");
-                sendPort.close();
-                receivePort.close();
-                return;
+
+        int prefetch = threads * PREFETCH_PER_THREAD;
+        localJobs = new LinkedBlockingDeque<MessageObject>(prefetch);
+        searchThreads = new SearchThread[threads];
+        for (int i = 0; i < threads; i++) {
+            searchThreads[i] = new SlaveSearchThread();
+            searchThreads[i].start();
+        }
+        ReceivePort informReceiver = myIbis.createReceivePort(
+                slaveBroadcastPortType, "inform", new InformUpcall());
+        informReceiver.enableConnections();
+        informReceiver.enableMessageUpcalls();
+
+        try {
+            // set when the master had no jobs for us, until it has news or
+            // RETRY_DELAY has passed
+            boolean waiting = false;
+            long retry = 0;
+            int informsSeen = 0;
+
+            while (true) {
+                List<Pair<Integer, Integer>> done;
+                SearchStatistics statistics;
+                int wanted;
+                synchronized (this) {
+                    // wait until there is room for jobs, or results to report
+                    while (true) {
+                        long now = System.currentTimeMillis();
+                        if (waiting && (informs != informsSeen || now >= retry)) {
+                            waiting = false;
+                        }
+                        wanted = waiting ? 0 : localJobs.remainingCapacity();
+                        if (wanted > 0 || !results.isEmpty()) {
+                            break;
+                        }
+                        if (waiting) {
+                            wait(retry - now);
+                        } else {
+                            wait();
+                        }
+                    }
+                    done = results;
+                    results = new ArrayList<Pair<Integer, Integer>>();
+                    statistics = resultsStatistics.take();
+                    if (wanted > 0) {
+                        informsSeen = informs;
+                    }
+                }
+
+                if (wanted == 0) {
+                    // only report results
+                    synchronized (masterPort) {
+                        WriteMessage request = masterPort.newMessage();
+                        MessageObject.writeType(request, MessageObject.message_id.JOB_RESULT);
+                        writeResults(request, done);
+                        MessageObject.writeStatistics(request, statistics);
+                        request.finish();
+                    }
+                    continue;
+                }
+
+                // Sending request for new jobs
+                synchronized (masterPort) {
+                    WriteMessage request = masterPort.newMessage();
+                    MessageObject.writeType(request, MessageObject.message_id.JOB_STEALING);
+                    writeResults(request, done);
+                    MessageObject.writeStatistics(request, statistics);
+                    request.writeInt(wanted);
+                    request.finish();
+                }
+
+                // Receiving next jobs(if presented)
+                ReadMessage reply = receivePort.receive();
+                MessageObject.message_id type = MessageObject.readType(reply);
+                Work[] cubes = new Work[0];
+                if (type == MessageObject.message_id.JOB_CUBE) {
+                    cubes = new Work[reply.readInt()];
+                    for (int i = 0; i < cubes.length; i++) {
+                        int piece = reply.readInt();
+                        int job = reply.readInt();
+                        cubes[i] = new Work(piece, job, Cube.readFrom(reply));
+                    }
+                }
+                reply.finish();
+
+                if (type == MessageObject.message_id.JOB_WAIT) {
+                    // the pool ran out of jobs for now, wait until the master
+                    // has news
+                    waiting = true;
+                    retry = System.currentTimeMillis() + RETRY_DELAY;
+                    continue;
+                }
+
+                // never blocks, we did not ask for more than fits
+                for (Work work : cubes) {
+                    MessageObject job = new MessageObject();
+                    job.messageType = MessageObject.message_id.JOB_CUBE;
+                    job.data = work;
+                    localJobs.putLast(job);
+                }
+                if (type != MessageObject.message_id.JOB_CUBE) {
+                    // no more work to do
+                    MessageObject job = new MessageObject();
+                    job.messageType = type;
+                    localJobs.putLast(job);
+                    break;
+                }
             }
 
-            // Solving current task
-            Cube cube = (Cube)job.data;
-            minimumBound = job.availSolution;
-            Pair<Integer, Integer> res = solve(cube);
-            System.out.println("SLAVE NODE  SOLVED ONE "  + res.getKey() + " :: " + res.getValue());
-            localSolutionResult.data = res;
+            for (SearchThread searchThread : searchThreads) {
+                searchThread.join();
+                if (searchThread.error != null) {
+                    throw searchThread.error;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for search threads", e);
+        } finally {
+            masterPort.close();
+            receivePort.close();
+            informReceiver.close();
+        }
+    }
 
-            // Sending back the result
-            request = sendPort.newMessage();
-            request.writeObject(localSolutionResult);
-            request.finish();
+    /**
+     * Handles the news broadcast by the master to a slave.
+     */
+    private class InformUpcall implements MessageUpcall {
 
-            // Sending request for a new job
-            request = sendPort.newMessage();
-            request.writeObject(jobRequest);
-            request.finish();
+        public void upcall(ReadMessage message) throws IOException {
+            message.readInt(); // bound of the round, not needed
+            String splitter = message.readString();
+            message.finish();
 
-            // Receiving next job(if presented)
-            reply = receivePort.receive();
-            job = (MessageObject)reply.readObject();
-            reply.finish();
+            if (splitter.isEmpty()) {
+                synchronized (ConcurrentSolver.this) {
+                    informs++;
+                    ConcurrentSolver.this.notifyAll();
+                }
+            } else if (splitter.equals(name)) {
+                // the pool ran out of jobs. Jobs we have queued are there for
+                // our own threads, only split up a running one without them
+                if (!localJobs.isEmpty() || !requestSplit()) {
+                    refuseSplit();
+                }
+            }
         }
     }
 
-    private HashSet<Cube> generateJobs(Cube cube, Integer depth, CubeCache cache){
-        if(depth == 0){
-            return new HashSet<Cube>(Arrays.asList(cube));
-        } else {
-            HashSet<Cube> res = new HashSet<Cube>();
-            for(Cube cb: cube.generateChildren(cache)){
-                res.addAll(generateJobs(cb, depth - 1, cache));
+    /**
+     * Expands the cube level by level, until there are at least the given
+     * number of jobs or MAX_JOB_DEPTH is reached. Cubes in the same symmetry
+     * class (see Cube.canonical()) have the same number of solutions, so only
+     * the first one of a class becomes a job, its weight counts the sequences
+     * of twists leading to the whole class. The jobs are in the same order on
+     * every node.
+     */
+    static List<Cube> generateJobs(Cube cube, int minimum, CubeCache cache){
+        List<Cube> jobs = new ArrayList<Cube>();
+        jobs.add(cube);
+        for (int depth = 0; depth < MAX_JOB_DEPTH && jobs.size() < minimum; depth++) {
+            Map<Cube, Cube> children = new LinkedHashMap<Cube, Cube>();
+            for (Cube job : jobs) {
+                for (Cube child : job.generateChildren(cache)) {
+                    Cube canonical = child.canonical();
+                    Cube same = children.get(canonical);
+                    if (same == null) {
+                        children.put(canonical, child);
+                    } else {
+                        same.setWeight(same.getWeight() + child.getWeight());
+                        cache.put(child);
+                    }
+                }
             }
-            return res;
+            jobs = new ArrayList<Cube>(children.values());
         }
+        return jobs;
     }
 
-    @Override
-    public void upcall(ReadMessage message) throws IOException, ClassNotFoundException {
-        MessageObject readMessage = (MessageObject) message.readObject();
-        message.finish();
-            // Notify Master node main thread that all work is done
+    /**
+     * Writes the results of a number of jobs: the id of their piece, and
+     * their solutions.
+     */
+    private static void writeResults(WriteMessage message,
+            List<Pair<Integer, Integer>> results) throws IOException {
+        message.writeInt(results.size());
+        for (Pair<Integer, Integer> result : results) {
+            message.writeInt(result.getKey());
+            message.writeInt(result.getValue());
+        }
+    }
 
-            ReceivePortIdentifier requestor = readMessage.requestor;
-            MessageObject response = new MessageObject();
-            response.messageType = MessageObject.message_id.JOB_CUBE;
-            if(requestor == null)
+    /**
+     * Reads the results written by writeResults().
+     */
+    private static List<Pair<Integer, Integer>> readResults(ReadMessage message)
+            throws IOException {
+        int count = message.readInt();
+        List<Pair<Integer, Integer>> results = new ArrayList<Pair<Integer, Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            int piece = message.readInt();
+            results.add(new Pair<Integer, Integer>(piece, message.readInt()));
+        }
+        return results;
+    }
+
+    /**
+     * Asks one of the search threads of this node to split up its job, the
+     * one with the most twists left before the bound.
+     *
+     * @return false if no thread is working on a job that can be split up
+     */
+    private boolean requestSplit() {
+        while (true) {
+            SearchThread biggest = null;
+            int levels = MIN_SPLIT_LEVELS - 1;
+            for (SearchThread searchThread : searchThreads) {
+                int left = searchThread.levelsLeft();
+                if (left > levels) {
+                    biggest = searchThread;
+                    levels = left;
+                }
+            }
+            if (biggest == null) {
+                return false;
+            }
+            if (biggest.split()) {
+                return true;
+            }
+            // its job ended meanwhile, look again
+        }
+    }
+
+    /**
+     * Tells the master a slave did not split up a job when asked to.
+     */
+    private void refuseSplit() throws IOException {
+        synchronized (masterPort) {
+            WriteMessage request = masterPort.newMessage();
+            MessageObject.writeType(request, MessageObject.message_id.JOB_SPLIT);
+            request.writeInt(-1);
+            request.finish();
+        }
+    }
+
+    /**
+     * Asks a single search thread of the pool to split up its job, when the
+     * queue of the master ran empty before the end of the round. An aborted
+     * job is searched again from scratch by its children, so only one split
+     * is asked at a time, and none while the children of the previous one
+     * have not all been taken. The search threads of the master are asked
+     * first, then the slave holding the oldest piece, which is the least
+     * deep one. A node that refuses is skipped until children come in.
+     */
+    private void splitOne() {
+        if (!jobQueue.isEmpty() || jobsTotal.get() == 0
+                || !splitRequested.compareAndSet(false, true)) {
+            return;
+        }
+        IbisIdentifier me = myIbis.identifier();
+        if (!splitRefusers.contains(me)) {
+            splitNode = me;
+            if (requestSplit()) {
                 return;
-            synchronized (this){
-                if(readMessage.messageType == MessageObject.message_id.JOB_STEALING){
-                    // Provide slave with one another job
-                    response.availSolution = solutionsStep - MAX_HOPS;
-                    try{
-                        response.data = jobQueue.remove();
-                    } catch(Exception e){
-                        response.messageType = MessageObject.message_id.EMPTY_MESSAGE;
+            }
+            splitRefusers.add(me);
+        }
+
+        IbisIdentifier oldest = null;
+        synchronized (inFlight) {
+            int piece = Integer.MAX_VALUE;
+            for (Map.Entry<IbisIdentifier, Map<Integer, Work>> pieces : inFlight
+                    .entrySet()) {
+                if (splitRefusers.contains(pieces.getKey())) {
+                    continue;
+                }
+                for (int held : pieces.getValue().keySet()) {
+                    if (held < piece) {
+                        oldest = pieces.getKey();
+                        piece = held;
                     }
-                    SendPort replyPort = myIbis.createSendPort(replyPortType);
-                    replyPort.connect(requestor);
-                    WriteMessage reply = replyPort.newMessage();
-                    reply.writeObject((response));
-                    reply.finish();
-                    replyPort.close();
-
-
-                } else if (readMessage.messageType == MessageObject.message_id.JOB_RESULT){
-                    Pair<Integer, Integer> res = (Pair<Integer, Integer>)readMessage.data;
-                    System.out.println("GOT RESULT (" + res.getKey() + " ; " + res.getValue() + ")");
-                    --jobsTotal;
-                    if(res.getValue() > 0 && (res.getValue() + MAX_HOPS <= solutionsStep)){
-                        solutionsStep = res.getValue() + MAX_HOPS;
-                        if (res.getValue() == solutionsStep){
-                            solutionsNum += res.getKey();
-                        } else {
-                            solutionsNum = res.getKey();
-                        }
+                }
+            }
+        }
+        if (oldest == null) {
+            // nobody can split up a job now, try everyone again next time
+            splitNode = null;
+            splitRefusers.clear();
+            splitRequested.set(false);
+            return;
+        }
+        splitNode = oldest;
+        inform(roundBound(), oldest);
+    }
 
-//                        SendPort sendPort = myIbis.createSendPort(slaveBroadcastPortType);
-//                        IbisIdentifier[] joinedIbises = myIbis.registry().joinedIbises();
-//                        for (IbisIdentifier joinedIbis : joinedIbises) {
-//                            sendPort.connect(joinedIbis, "receive port");
-//                        }
-//                        MessageObject mess = new MessageObject();
-//                        mess.messageType = MessageObject.message_id.JOB_INFORM;
-//                        mess.data = new Long(solutionsStep);
-//                        mess.requestor = null; // don't really need it here
-//                        try {
-//                            WriteMessage toSend = sendPort.newMessage();
-//                            toSend.writeObject(mess);
-//                            toSend.finish();
-//                        } catch (IOException e) {
-//                            System.err.println("error when sending message: " + e);
-//                        }
-//                        sendPort.lostConnections();
-                    } else if (res.getValue() == solutionsStep){
+    /**
+     * Handles a node which did not split up a job when asked to, by asking
+     * the next one.
+     */
+    private void splitRefused(IbisIdentifier node) {
+        if (!node.equals(splitNode)) {
+            // asked before the last children came in
+            return;
+        }
+        splitRefusers.add(node);
+        splitNode = null;
+        splitRequested.set(false);
+        splitOne();
+    }
 
-                    } else {
-                        // do nothing
+    /**
+     * Takes a job from the queue of the master for one of its own search
+     * threads. Waits for jobs of the next round, or split off by others,
+     * returns null once a solution has been found.
+     */
+    private synchronized Work takeJob() throws InterruptedException {
+        while (true) {
+            Work work = jobQueue.poll();
+            if (work != null) {
+                return work;
+            }
+            if (finished) {
+                return null;
+            }
+            splitOne();
+            wait();
+        }
+    }
+
+    /**
+     * Adds the children of a job which was split up to the queue of the
+     * master. The job itself will not report a result, its children will.
+     *
+     * @param job
+     *            index of the job of the round the children are part of
+     */
+    private void addJobs(int job, Cube[] children) {
+        // counted before they can be taken, the counts must not drop below 0
+        piecesLeft.addAndGet(job, children.length - 1);
+        jobsTotal.addAndGet(children.length - 1);
+        List<Work> work = new ArrayList<Work>();
+        for (Cube child : children) {
+            work.add(newWork(job, child));
+        }
+        queueJobs(work);
+    }
+
+    /**
+     * Adds jobs to the queue of the master, and tells the slaves waiting for
+     * jobs.
+     */
+    private void queueJobs(List<Work> work) {
+        jobQueue.addAll(work);
+        synchronized (this) {
+            // wake up our own search threads
+            notifyAll();
+        }
+        splitNode = null;
+        splitRefusers.clear();
+        splitRequested.set(false);
+        if (slavesWaiting.getAndSet(false)) {
+            inform(roundBound(), null);
+        }
+    }
+
+    /**
+     * Creates a new piece of work of the master.
+     *
+     * @param job
+     *            index of the job of the round the piece is part of
+     */
+    private Work newWork(int job, Cube cube) {
+        return new Work(nextPiece.getAndIncrement(), job, cube);
+    }
+
+    /**
+     * Takes a piece handed out to a slave, once its result or split came in.
+     *
+     * @return the piece, or null if the slave does not have it (any more)
+     */
+    private Work pieceDone(IbisIdentifier slave, int piece) {
+        synchronized (inFlight) {
+            Map<Integer, Work> pieces = inFlight.get(slave);
+            return pieces == null ? null : pieces.remove(piece);
+        }
+    }
+
+    /**
+     * Bound of the current round of the master.
+     */
+    private int roundBound() {
+        return jobs.get(0).getBound();
+    }
+
+    /**
+     * Broadcasts news to all slaves connected so far. Slaves are connected
+     * through the same outbox on their first request, so a slave that was
+     * told to wait always gets the news sent after that.
+     *
+     * @param bound
+     *            bound of the current round, 0 once a solution has been found
+     * @param splitter
+     *            the only slave which should split up one of its jobs, which
+     *            is no news to the others, or null
+     */
+    private void inform(final int bound, final IbisIdentifier splitter) {
+        informOutbox.post(new Outgoing() {
+            public void send() throws IOException {
+                if (informPort.connectedTo().length == 0) {
+                    return;
+                }
+                try {
+                    WriteMessage message = informPort.newMessage();
+                    message.writeInt(bound);
+                    message.writeString(splitter == null ? "" : splitter.name());
+                    message.finish();
+                } catch (IOException e) {
+                    // a slave may have crashed, have the registry check it
+                    // now instead of at its next heartbeat
+                    for (ReceivePortIdentifier lost : informPort.lostConnections()) {
+                        myIbis.registry().maybeDead(lost.ibisIdentifier());
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Message queued by the master, to be sent by one of the sender threads.
+     */
+    private interface Outgoing {
+        void send() throws IOException;
+    }
+
+    /**
+     * Queue of messages of the master for one destination. Messages are sent
+     * in order, by one sender thread at a time, so the upcall queueing them
+     * never waits for the network.
+     */
+    private class Outbox implements Runnable {
+
+        private final Queue<Outgoing> queue = new ConcurrentLinkedQueue<Outgoing>();
+
+        // true while the outbox is waiting for, or being sent by, a sender
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void post(Outgoing message) {
+            queue.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        public void run() {
+            do {
+                Outgoing message;
+                while ((message = queue.poll()) != null) {
+                    try {
+                        message.send();
+                    } catch (IOException e) {
+                        System.err.println("error when sending message: " + e);
                     }
-                    if(jobQueue.size() == 0 && jobsTotal == 0) {
-                        endTime = System.currentTimeMillis();
-                        System.out.println("The last job arrived to Master node; Solution Number is <" + solutionsNum + ">; Solutions Step is <" + solutionsStep +
-                                ">; Time is <" + (endTime - startTime) + ">" );
-                        this.notify();
+                }
+                scheduled.set(false);
+                // a message may have been posted after the last poll
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * Queues a reply to a job request of a slave: the type of the reply, and
+     * the jobs if it has any. Connects to the slave the first time. Once the
+     * reply is sent, the time since the request was received is added to the
+     * metrics.
+     */
+    private void reply(final IbisIdentifier slave,
+            final MessageObject.message_id type, final List<Work> cubes,
+            final long received) {
+        outboxes.get(slave).post(new Outgoing() {
+            public void send() throws IOException {
+                SendPort replyPort = replyPorts.get(slave);
+                if (replyPort == null) {
+                    replyPort = myIbis.createSendPort(replyPortType);
+                    replyPort.connect(slave, "reply");
+                    replyPorts.put(slave, replyPort);
+                }
+                WriteMessage reply = replyPort.newMessage();
+                MessageObject.writeType(reply, type);
+                if (type == MessageObject.message_id.JOB_CUBE) {
+                    reply.writeInt(cubes.size());
+                    for (Work work : cubes) {
+                        reply.writeInt(work.piece);
+                        reply.writeInt(work.job);
+                        work.cube.writeTo(reply);
                     }
+                }
+                reply.finish();
+                metrics.addSteal(slave.name(), System.nanoTime() - received);
+            }
+        });
+    }
+
+    @Override
+    public void upcall(ReadMessage message) throws IOException, ClassNotFoundException {
+        long received = System.nanoTime();
+        final IbisIdentifier requestor = message.origin().ibisIdentifier();
+        MessageObject.message_id type = MessageObject.readType(message);
+        List<Pair<Integer, Integer>> done = null;
+        SearchStatistics statistics = null;
+        int wanted = 0;
+        int split = 0;
+        if (type == MessageObject.message_id.JOB_STEALING) {
+            done = readResults(message);
+            statistics = MessageObject.readStatistics(message);
+            wanted = message.readInt();
+        } else if (type == MessageObject.message_id.JOB_RESULT) {
+            done = readResults(message);
+            statistics = MessageObject.readStatistics(message);
+        } else if (type == MessageObject.message_id.JOB_SPLIT) {
+            split = message.readInt();
+        }
+        message.finish();
 
+        if (!outboxes.containsKey(requestor)
+                && outboxes.putIfAbsent(requestor, new Outbox()) == null) {
+            // first request of this slave, include it in broadcasts
+            informOutbox.post(new Outgoing() {
+                public void send() throws IOException {
+                    informPort.connect(requestor, "inform");
                 }
+            });
+        }
+        if (statistics != null) {
+            // before the results, so they are in the metrics of the round
+            metrics.add(requestor.name(), statistics);
+        }
+        if (done != null) {
+            for (Pair<Integer, Integer> result : done) {
+                // pieces of a lost slave were queued again, their results
+                // are counted when they come in from another node
+                Work work = pieceDone(requestor, result.getKey());
+                if (work != null) {
+                    addResult(work.job, result.getValue());
+                }
+            }
+        }
+        if (type == MessageObject.message_id.JOB_SPLIT && split < 0) {
+            splitRefused(requestor);
+        } else if (type == MessageObject.message_id.JOB_SPLIT) {
+            Work work = pieceDone(requestor, split);
+            if (work != null) {
+                Cube[] children;
+                synchronized (splitCache) {
+                    children = work.cube.generateChildren(splitCache);
+                }
+                addJobs(work.job, children);
+            }
+        } else if (type == MessageObject.message_id.JOB_STEALING) {
+            // Provide slave with as many jobs as it asked for, or as we have
+            List<Work> cubes = new ArrayList<Work>();
+            synchronized (inFlight) {
+                // a lost slave gets no more jobs, its pieces would be lost
+                // again
+                if (!slavesGone.contains(requestor)) {
+                    Work work;
+                    while (cubes.size() < wanted && (work = jobQueue.poll()) != null) {
+                        cubes.add(work);
+                    }
+                    Map<Integer, Work> pieces = inFlight.get(requestor);
+                    if (pieces == null) {
+                        pieces = new HashMap<Integer, Work>();
+                        inFlight.put(requestor, pieces);
+                    }
+                    for (Work handedOut : cubes) {
+                        pieces.put(handedOut.piece, handedOut);
+                    }
+                }
+            }
+            if (!cubes.isEmpty()) {
+                reply(requestor, MessageObject.message_id.JOB_CUBE, cubes, received);
+            } else if (finished || slavesGone.contains(requestor)) {
+                reply(requestor, MessageObject.message_id.EMPTY_MESSAGE, cubes, received);
+                slavesGone.add(requestor);
+                synchronized (this) {
+                    notifyAll();
+                }
+            } else {
+                // wait for the next round, or for running jobs to be split up
+                reply(requestor, MessageObject.message_id.JOB_WAIT, cubes, received);
+                slavesWaiting.set(true);
+                if (!jobQueue.isEmpty() && slavesWaiting.getAndSet(false)) {
+                    // jobs were added since we looked
+                    inform(roundBound(), null);
+                } else {
+                    splitOne();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the result of a job, from a slave or from a search thread of the
+     * master, and wakes up the master when it was the last one of the round.
+     *
+     * @param job
+     *            index of the job of the round the result is part of
+     * @param solutions
+     *            solutions found
+     */
+    private void addResult(int job, int solutions) {
+        solutionsNum.addAndGet(solutions);
+        // solutions first, a job without pieces left is complete
+        jobSolutions.addAndGet(job, solutions);
+        piecesLeft.decrementAndGet(job);
+        if (jobsTotal.decrementAndGet() == 0) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Saves the state of the master: the bound of the current round, and the
+     * solutions of the jobs of the round that are complete. Does nothing
+     * before the first round.
+     */
+    private void checkpoint() {
+        Checkpoint checkpoint;
+        synchronized (this) {
+            // a new round is started while holding the lock
+            int bound = roundBound();
+            if (bound <= jobDepth) {
+                return;
+            }
+            int[] solutions = new int[jobs.size()];
+            for (int i = 0; i < solutions.length; i++) {
+                solutions[i] = piecesLeft.get(i) == 0 ? jobSolutions.get(i)
+                        : Checkpoint.INCOMPLETE;
+            }
+            checkpoint = new Checkpoint(rootCube, jobMinimum, bound, solutions);
+        }
+        synchronized (checkpointFile) {
+            try {
+                checkpoint.write(checkpointFile);
+            } catch (IOException e) {
+                System.err.println("Cannot write checkpoint: " + e);
+            }
+        }
+    }
 
+    /**
+     * Queues the pieces handed out to a slave which died or left before it
+     * was told to stop, so other nodes search them. The broadcast port drops
+     * the connection to it by itself. Does nothing on a slave, which never
+     * hands out pieces.
+     */
+    private void slaveLost(IbisIdentifier slave) {
+        Map<Integer, Work> pieces;
+        synchronized (inFlight) {
+            if (!slavesGone.add(slave)) {
+                // told to stop already, it had nothing left to do
+                return;
             }
+            pieces = inFlight.remove(slave);
+        }
+        if (informOutbox == null) {
+            return;
+        }
+        System.err.println("MASTER NODE:  lost " + slave + " with <"
+                + (pieces == null ? 0 : pieces.size()) + "> jobs");
+        if (pieces != null && !pieces.isEmpty()) {
+            queueJobs(new ArrayList<Work>(pieces.values()));
+        }
+        // it will not split up the job it was asked to
+        splitRefused(slave);
+        synchronized (this) {
+            // it is not told to stop any more
+            notifyAll();
+        }
+    }
+
+    public void joined(IbisIdentifier joinedIbis) {
+        // ignored
+    }
+
+    public void left(IbisIdentifier leftIbis) {
+        slaveLost(leftIbis);
+    }
+
+    public void died(IbisIdentifier corpse) {
+        slaveLost(corpse);
+    }
+
+    public void gotSignal(String signal, IbisIdentifier source) {
+        // ignored
+    }
+
+    public void electionResult(String electionName, IbisIdentifier winner) {
+        // ignored
+    }
+
+    public void poolClosed() {
+        // ignored
+    }
+
+    public void poolTerminated(IbisIdentifier source) {
+        // ignored
     }
 }
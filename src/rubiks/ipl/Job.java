@@ -0,0 +1,60 @@
+package rubiks.ipl;
+
+/**
+ * Subtree of a bound round, searched by one thread of the pool. Every job
+ * carries a share of the credit of the round. The credit of a job is returned
+ * to the master with its result, or divided among its children when the job
+ * is split up. The round is over once the master has all credit back.
+ */
+public class Job {
+
+    /**
+     * Credit of a round, divided among the jobs of the round
+     */
+    public static final long TOTAL_CREDIT = 1L << 62;
+
+    private final Cube cube;
+
+    private final long credit;
+
+    public Job(Cube cube, long credit) {
+        this.cube = cube;
+        this.credit = credit;
+    }
+
+    public Cube getCube() {
+        return cube;
+    }
+
+    public long getCredit() {
+        return credit;
+    }
+
+    /**
+     * Checks if the credit of this job can be divided among its children.
+     *
+     * @param children
+     *            number of children of the cube
+     */
+    public boolean canSplit(int children) {
+        return credit >= children;
+    }
+
+    /**
+     * Splits up the job into one job per child of the cube. The children
+     * share the credit of this job, the first one gets what is left over.
+     *
+     * @param children
+     *            children of the cube of this job
+     * @return the jobs of the children
+     */
+    public Job[] split(Cube[] children) {
+        Job[] result = new Job[children.length];
+        long share = credit / children.length;
+        for (int i = 0; i < children.length; i++) {
+            result[i] = new Job(children[i], share
+                    + (i == 0 ? credit % children.length : 0));
+        }
+        return result;
+    }
+}
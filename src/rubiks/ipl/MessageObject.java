@@ -1,22 +1,62 @@
 package rubiks.ipl;
 
 
-import ibis.ipl.ReceivePortIdentifier;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
 
-import java.io.Serializable;
+import java.io.IOException;
+
+import rubiks.cube.SearchStatistics;
 
 /**
  * Class which represents message object
- * Should be used to be sent from client to server
- * Can possibly contain Job stealing request or returning value from one job execution
+ * Messages are sent with data serialization: the type of the message as a
+ * single byte, followed by the payload of that type, written field by field
+ * (see the solvers). Cubes are written with Cube.writeTo(), search
+ * statistics with writeStatistics().
+ * A slave also queues received jobs as message objects.
  */
-public class MessageObject implements Serializable{
-   enum message_id{ JOB_STEALING, JOB_RESULT, JOB_CUBE, JOB_INFORM, EMPTY_MESSAGE};
+public class MessageObject {
+   enum message_id{ JOB_STEALING, JOB_RESULT, JOB_CUBE, JOB_SPLIT, JOB_WAIT, EMPTY_MESSAGE};
+
+   private static final message_id[] types = message_id.values();
 
    public message_id messageType = message_id.EMPTY_MESSAGE; // by default
-   public Serializable data = null; // by default
-   public ReceivePortIdentifier requestor;
-   public long availSolution;
+   public Object data = null; // by default
+
+   /**
+    * Writes the type of a message, the first byte of every message.
+    */
+   public static void writeType(WriteMessage message, message_id type) throws IOException {
+      message.writeByte((byte) type.ordinal());
+   }
+
+   /**
+    * Reads the type of a message written by writeType().
+    */
+   public static message_id readType(ReadMessage message) throws IOException {
+      return types[message.readByte()];
+   }
+
+   /**
+    * Writes search statistics, as all their counts.
+    */
+   public static void writeStatistics(WriteMessage message, SearchStatistics statistics) throws IOException {
+      for (long count : statistics.toArray()) {
+         message.writeLong(count);
+      }
+   }
+
+   /**
+    * Reads search statistics written by writeStatistics().
+    */
+   public static SearchStatistics readStatistics(ReadMessage message) throws IOException {
+      long[] counts = new long[SearchStatistics.FIELDS];
+      for (int i = 0; i < counts.length; i++) {
+         counts[i] = message.readLong();
+      }
+      return SearchStatistics.fromArray(counts);
+   }
 
    public String toString(){
       StringBuilder res = new StringBuilder();
@@ -25,12 +65,14 @@ public class MessageObject implements Serializable{
          res.append("JOB_STEALING");
       else if(messageType == message_id.JOB_CUBE)
          res.append("JOB_CUBE");
-      else if(messageType == message_id.JOB_INFORM)
-         res.append("JOB_INFORM");
+      else if(messageType == message_id.JOB_SPLIT)
+         res.append("JOB_SPLIT");
+      else if(messageType == message_id.JOB_WAIT)
+         res.append("JOB_WAIT");
       else
          res.append("SOLUTIONS_NUM");
       res.append("; data:");
-      
+
 	if(data != null)
 		res.append(data.toString());
 	else
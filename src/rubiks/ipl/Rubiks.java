@@ -3,8 +3,13 @@ package rubiks.ipl;
 
 import ibis.ipl.IbisCreationFailedException;
 
+import java.io.File;
 import java.io.IOException;
 
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.TranspositionTable;
+
 /**
  * ConcurrentSolver for rubik's cube puzzle.
  *
@@ -32,10 +37,32 @@ public class Rubiks {
         System.out
                 .println("--seed SEED\t\tSeed of random generator (default: 0");
         System.out
-                .println("--threads THREADS\t\tNumber of threads to use (default: 1, other values not supported by sequential version)");
+                .println("--threads THREADS\t\tNumber of search threads per node (default: 1)");
+        System.out
+                .println("--steal\t\tBalance jobs by stealing from random nodes, instead of handing them out from the master");
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--packed\t\tStore cubes packed in longs (3 bits per element), a fraction of the memory but a slower search");
+        System.out
+                .println("--count-misplaced\t\tKeep a count of misplaced stickers in every cube, for a constant time solved check");
+        System.out
+                .println("--pdb DIR\t\tPrune the search with the pattern databases in DIR, generated there if missing (see PatternDatabaseGenerator)");
+        System.out
+                .println("--tt MEGABYTES\t\tReuse subtree solution counts from a transposition table of at most MEGABYTES");
+        System.out
+                .println("--tt-policy POLICY\t\tReplacement policy of the transposition table, depth or always (default: depth)");
+        System.out
+                .println("--metrics FILE\t\tExport search metrics of the whole pool to FILE on the master, as CSV if it ends in .csv, JSON otherwise");
+        System.out
+                .println("--metrics-interval SECONDS\t\tAlso export the metrics every SECONDS while solving");
+        System.out
+                .println("--checkpoint FILE\t\tSave the state of the master to FILE, to resume from if the pool is lost (not with --steal)");
+        System.out
+                .println("--checkpoint-interval SECONDS\t\tTime between saves of the state (default: 60)");
+        System.out
+                .println("--resume FILE\t\tResume from the state saved in FILE, and keep saving it there (not with --steal)");
         System.out.println("");
     }
 
@@ -53,9 +80,28 @@ public class Rubiks {
         int twists = 11;
         int seed = 0;
         String fileName = null;
+        String pdbDirectory = null;
+
+        // size of the transposition table, 0 to search without one
+        int transpositionMegabytes = 0;
+        TranspositionTable.Policy transpositionPolicy = TranspositionTable.Policy.DEPTH;
+
+        // file to export metrics to, and seconds between exports (0 to only
+        // export at the end)
+        String metricsFile = null;
+        int metricsInterval = 0;
+
+        // file the master saves its state to, seconds between saves, and
+        // whether to resume from the state in it
+        String checkpointFile = null;
+        int checkpointInterval = 60;
+        boolean resume = false;
 
         // number of threads used to solve puzzle
-        // (not used in sequential version)
+        int threads = 1;
+
+        // steal jobs from random nodes instead of from the master
+        boolean steal = false;
 
         for (int i = 0; i < arguments.length; i++) {
             if (arguments[i].equalsIgnoreCase("--size")) {
@@ -67,9 +113,44 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--seed")) {
                 i++;
                 seed = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--steal")) {
+                steal = true;
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--pdb")) {
+                i++;
+                pdbDirectory = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--tt")) {
+                i++;
+                transpositionMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--tt-policy")) {
+                i++;
+                transpositionPolicy = TranspositionTable.Policy
+                        .valueOf(arguments[i].toUpperCase());
+            } else if (arguments[i].equalsIgnoreCase("--metrics")) {
+                i++;
+                metricsFile = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--metrics-interval")) {
+                i++;
+                metricsInterval = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--checkpoint")) {
+                i++;
+                checkpointFile = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--checkpoint-interval")) {
+                i++;
+                checkpointInterval = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--resume")) {
+                i++;
+                checkpointFile = arguments[i];
+                resume = true;
+            } else if (arguments[i].equalsIgnoreCase("--packed")) {
+                Cube.setPacked(true);
+            } else if (arguments[i].equalsIgnoreCase("--count-misplaced")) {
+                Cube.setCountMisplaced(true);
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -80,6 +161,12 @@ public class Rubiks {
             }
         }
 
+        TranspositionTable transpositions = null;
+        if (transpositionMegabytes > 0) {
+            transpositions = new TranspositionTable(
+                    transpositionMegabytes * 1024L * 1024L, transpositionPolicy);
+        }
+
         // create cube
         if (fileName == null) {
             cube = new Cube(size, twists, seed);
@@ -92,16 +179,93 @@ public class Rubiks {
             }
         }
 
-        // print cube info
-        System.out.println("Searching for solution for cube of size "
-                + cube.getSize() + ", twists = " + twists + ", seed = " + seed);
-        cube.print(System.out);
-        System.out.flush();
+        // load pattern databases
+        Heuristic heuristic = null;
+        if (pdbDirectory != null) {
+            try {
+                heuristic = Heuristic.load(new File(pdbDirectory), cube
+                        .getSize());
+            } catch (IOException e) {
+                System.out.println("Cannot load pattern databases: " + e);
+                System.exit(1);
+            }
+        }
+
+        if (steal && checkpointFile != null) {
+            System.out
+                    .println("--checkpoint and --resume are not supported with --steal");
+            System.exit(1);
+        }
+
+        // read the state to resume from before joining the pool, like the
+        // cube and pattern databases, so a bad file stops every node before
+        // they wait for each other
+        Checkpoint checkpoint = null;
+        if (resume) {
+            try {
+                checkpoint = Checkpoint.read(new File(checkpointFile));
+                checkpoint.check(cube);
+            } catch (IOException e) {
+                System.out.println("Cannot resume from checkpoint: " + e);
+                System.exit(1);
+            }
+        }
 
-        ConcurrentSolver solver = new ConcurrentSolver();
+        Solver solver;
+        if (steal) {
+            solver = new StealingSolver();
+        } else {
+            ConcurrentSolver concurrentSolver = new ConcurrentSolver();
+            if (checkpointFile != null) {
+                concurrentSolver.setCheckpoint(new File(checkpointFile),
+                        checkpointInterval * 1000L, checkpoint);
+            }
+            solver = concurrentSolver;
+        }
+        solver.setHeuristic(heuristic);
+        solver.setTranspositionTable(transpositions);
+        solver.setThreads(threads);
         // solve
         try {
+            // only the master prints, so the combined output of the pool is
+            // the same as the output of the sequential version
+            boolean master = solver.init();
+
+            // created once the pool is there, so it only times the solving
+            Metrics metrics = new Metrics();
+            solver.setMetrics(metrics);
+
+            if (master) {
+                // print cube info
+                System.out.println("Searching for solution for cube of size "
+                        + cube.getSize() + ", twists = " + twists + ", seed = " + seed);
+                cube.print(System.out);
+                System.out.flush();
+
+                if (metricsFile != null && metricsInterval > 0) {
+                    metrics.exportEvery(new File(metricsFile),
+                            metricsInterval * 1000L);
+                }
+            }
+
+            long start = System.currentTimeMillis();
             solver.run(cube);
+            long end = System.currentTimeMillis();
+            metrics.stop();
+
+            // NOTE: this is printed to standard error! The rest of the output is
+            // constant for each set of parameters. Printing this to standard error
+            // makes the output of standard out comparable with "diff"
+            if (master) {
+                System.err.println("Solving cube took " + (end - start)
+                        + " milliseconds");
+            }
+            // every node prints its own searches, the master those of the
+            // whole pool
+            metrics.print(System.err);
+            if (master && metricsFile != null) {
+                metrics.export(new File(metricsFile));
+            }
         } catch (IbisCreationFailedException e) {
             e.printStackTrace();
         } catch (IOException e) {
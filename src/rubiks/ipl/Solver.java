@@ -0,0 +1,67 @@
+package rubiks.ipl;
+
+import ibis.ipl.IbisCreationFailedException;
+
+import java.io.IOException;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.TranspositionTable;
+
+/**
+ * Solves a cube with a pool of Ibis nodes. Every node of the pool creates
+ * the same cube, calls init() and then run().
+ */
+public interface Solver {
+
+    /**
+     * Sets the heuristic used to prune the search of every job.
+     *
+     * @param heuristic
+     *            pattern databases to use, or null
+     */
+    void setHeuristic(Heuristic heuristic);
+
+    /**
+     * Sets the table subtree counts are stored in and looked up from, shared
+     * by the search threads of a node.
+     *
+     * @param transpositions
+     *            table to use, or null
+     */
+    void setTranspositionTable(TranspositionTable transpositions);
+
+    /**
+     * Sets the number of search threads of each node.
+     *
+     * @param threads
+     *            number of threads searching jobs in parallel
+     */
+    void setThreads(int threads);
+
+    /**
+     * Sets the metrics the statistics of the searches of this node are added
+     * to. The master also adds the statistics reported by the other nodes,
+     * and the time of every bound.
+     *
+     * @param metrics
+     *            metrics of this node
+     */
+    void setMetrics(Metrics metrics);
+
+    /**
+     * Joins the pool, and elects the master. Must be called before run().
+     *
+     * @return true if this node is the master
+     */
+    boolean init() throws IbisCreationFailedException, IOException;
+
+    /**
+     * Solves a cube with the whole pool. The master prints the bounds tried
+     * and the solutions found, like the sequential version.
+     *
+     * @param cube
+     *            the cube to solve
+     */
+    void run(Cube cube) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,888 @@
+package rubiks.ipl;
+
+import ibis.ipl.*;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.SearchStatistics;
+import rubiks.cube.TranspositionTable;
+
+/**
+ * Solver without a central job queue, for large pools. The master only
+ * starts the bound rounds. Every node starts a round with its own share of
+ * the jobs in a deque, and its search threads take jobs from the front of
+ * it. A node that runs out of jobs steals one from the back of the deque of
+ * a random other node, which splits up a job it is working on when it has
+ * none left to give.
+ *
+ * The end of a round is found by credit recovery: the master divides a fixed
+ * credit among the jobs of a round, a job which is split up divides its
+ * credit among its children, and the credit of every searched job goes back
+ * to the master with its result. Nodes only report their results when they
+ * run out of jobs, so the master gets a message per idle node, not per job.
+ * The round is over when all credit is back.
+ *
+ * The statistics of the searches, and the time it takes to steal a job, go
+ * to the master along with the results, and when a node stops.
+ *
+ * Credit held by a node that dies or leaves before it stopped never comes
+ * back, and neither do the jobs of its share in later rounds. The master
+ * then stops the pool and fails the solve, and the other nodes leave the
+ * pool when they lose the master.
+ */
+public class StealingSolver implements Solver, MessageUpcall, RegistryEventHandler {
+
+    /**
+     * Time (in milliseconds) a node waits before stealing again, after a
+     * victim had no job to give. The time doubles with every steal that
+     * comes back empty, up to MAX_STEAL_DELAY, until the node gets a job or
+     * a new round starts, so idle nodes do not keep polling between rounds.
+     */
+    private static final long STEAL_DELAY = 10;
+    private static final long MAX_STEAL_DELAY = 500;
+
+    /**
+     * Time (in milliseconds) a thief waits for a reply before checking if the
+     * victim is still there
+     */
+    private static final long REPLY_TIMEOUT = 1000;
+
+    /**
+     * Time (in milliseconds) to keep trying to connect to another node
+     */
+    private static final long CONNECT_TIMEOUT = 60000;
+
+    /**
+     * Bounds broadcast by the master to stop searching, and to leave the pool
+     * once every node has stopped
+     */
+    private static final int STOP = 0;
+    private static final int EXIT = -1;
+
+    /**
+     * Port type is used for sending steal requests to any node, and results
+     * to the master
+     */
+    PortType requestPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
+            PortType.SERIALIZATION_DATA, PortType.RECEIVE_AUTO_UPCALLS,
+            PortType.CONNECTION_MANY_TO_ONE);
+
+    /**
+     * Port type is used for sending a stolen job back
+     */
+    PortType replyPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
+            PortType.SERIALIZATION_DATA, PortType.RECEIVE_EXPLICIT,
+            PortType.RECEIVE_TIMEOUT, PortType.CONNECTION_MANY_TO_ONE);
+
+    /**
+     * Port type is used for broadcasting the bound of a new round from the
+     * master to all nodes
+     */
+    PortType roundPortType = new PortType(PortType.COMMUNICATION_RELIABLE,
+            PortType.SERIALIZATION_DATA, PortType.RECEIVE_AUTO_UPCALLS,
+            PortType.CONNECTION_ONE_TO_MANY);
+
+    IbisCapabilities ibisCapabilities = new IbisCapabilities(
+            IbisCapabilities.ELECTIONS_STRICT, IbisCapabilities.CLOSED_WORLD,
+            IbisCapabilities.MEMBERSHIP_TOTALLY_ORDERED);
+
+    /**
+     * Ibis identifier of the master node
+     */
+    IbisIdentifier master = null;
+
+    private Ibis myIbis = null;
+
+    /**
+     * All nodes of the pool, in the order they joined, which is the same on
+     * every node
+     */
+    private final List<IbisIdentifier> nodes = new ArrayList<IbisIdentifier>();
+
+    private final Random random = new Random();
+
+    private Heuristic heuristic = null;
+    private TranspositionTable transpositions = null;
+    private int threads = 1;
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Name of this node in the metrics
+     */
+    private String name;
+
+    /**
+     * Jobs this node starts every round with. Every node generates the same
+     * jobs from the cube, and takes every poolSize-th one.
+     */
+    private final List<Job> share = new ArrayList<Job>();
+    private int jobDepth;
+
+    /**
+     * Jobs of this node not taken by a search thread yet. Search threads take
+     * from the front, thieves from the back, where the bigger subtrees are.
+     */
+    private final Deque<Job> deque = new ArrayDeque<Job>();
+
+    /**
+     * Set when one of the search threads is stealing for the node, the others
+     * wait for it
+     */
+    private boolean stealing = false;
+
+    /**
+     * Set when a solution has been found, and the node can stop searching
+     */
+    private boolean stopped = false;
+
+    /**
+     * Set when every node has stopped, and the node can leave the pool
+     */
+    private boolean exit = false;
+
+    /**
+     * Time (as in System.currentTimeMillis()) before which the node does not
+     * steal again, and the time to wait after the next empty steal
+     */
+    private long nextSteal = 0;
+    private long stealDelay = STEAL_DELAY;
+
+    /**
+     * Nodes which died or left the pool. Nobody steals from them any more.
+     */
+    private final Set<IbisIdentifier> lost = new HashSet<IbisIdentifier>();
+
+    /**
+     * Set when a node was lost before it stopped, the solve fails
+     */
+    private IOException failure = null;
+
+    /**
+     * Credit, solutions and statistics of the jobs this node searched, not
+     * reported to the master yet
+     */
+    private long credit = 0;
+    private int solutions = 0;
+    private SearchStatistics statistics = new SearchStatistics();
+
+    /**
+     * Credit and solutions reported to the master in the current round
+     */
+    private long roundCredit = 0;
+    private int roundSolutions = 0;
+
+    /**
+     * Nodes that told the master they stopped, or were lost
+     */
+    private final Set<IbisIdentifier> nodesDone = new HashSet<IbisIdentifier>();
+
+    /**
+     * Ports to the request port of other nodes, and to the port they receive
+     * stolen jobs with. Connections are kept, every node steals from every
+     * other node sooner or later.
+     */
+    private final Map<IbisIdentifier, SendPort> requestPorts = new HashMap<IbisIdentifier, SendPort>();
+    private final Map<IbisIdentifier, SendPort> replyPorts = new HashMap<IbisIdentifier, SendPort>();
+
+    private ReceivePort replyReceiver;
+
+    /**
+     * Search threads of this node
+     */
+    private SearchThread[] searchThreads;
+
+    /**
+     * Search thread. Takes jobs until a solution has been found, and adds the
+     * result of each job to the results of the node.
+     */
+    private class SearchThread extends Thread {
+
+        // search state is allocated once, and reused for every bound and
+        // every job
+        private Search search = null;
+
+        private CubeCache cache = null;
+
+        // job being searched, null while waiting for one, and the number of
+        // its search (see Search.getSearches()). The number is set first, so
+        // a job read after it never belongs to a later search
+        private volatile Job job = null;
+
+        private volatile int running = 0;
+
+        private IOException error = null;
+
+        SearchThread() {
+            super("search thread");
+        }
+
+        /**
+         * Asks this thread to split up the job it is working on.
+         *
+         * @return false if the thread is not working on a job that can be
+         *         split up
+         */
+        boolean split() {
+            int running = this.running;
+            Job job = this.job;
+            if (job == null || !canSplit(job)) {
+                return false;
+            }
+            search.abort(running);
+            return true;
+        }
+
+        public void run() {
+            try {
+                Job job;
+                while ((job = nextJob()) != null) {
+                    Cube cube = job.getCube();
+                    if (search == null) {
+                        search = new Search(cube.getSize(),
+                                ConcurrentSolver.PRINT_SOLUTION);
+                        search.setHeuristic(heuristic);
+                        search.setTranspositionTable(transpositions);
+                        cache = new CubeCache(cube.getSize());
+                    }
+                    running = search.getSearches() + 1;
+                    this.job = job;
+                    long start = System.nanoTime();
+                    int result = search.solutions(cube);
+                    this.job = null;
+                    SearchStatistics statistics = search.takeStatistics();
+                    if (result == Search.ABORTED) {
+                        addStatistics(statistics);
+                        addJobs(job.split(cube.generateChildren(cache)));
+                    } else {
+                        statistics.addJob(System.nanoTime() - start);
+                        addStatistics(statistics);
+                        addResult(job.getCredit(), result);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop searching
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    public void setTranspositionTable(TranspositionTable transpositions) {
+        this.transpositions = transpositions;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean init() throws IbisCreationFailedException, IOException {
+        myIbis = IbisFactory.createIbis(ibisCapabilities, this,
+                requestPortType, replyPortType, roundPortType);
+        myIbis.registry().enableEvents();
+        master = myIbis.registry().elect("Master");
+        name = myIbis.identifier().name();
+
+        // wait until we have seen every node join
+        myIbis.registry().waitUntilPoolClosed();
+        synchronized (this) {
+            while (nodes.size() < myIbis.registry().getPoolSize()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while joining", e);
+                }
+            }
+        }
+        return master.equals(myIbis.identifier());
+    }
+
+    public void run(Cube cube) throws IOException, ClassNotFoundException {
+        int poolSize = nodes.size();
+        int rank = nodes.indexOf(myIbis.identifier());
+
+        // every node generates the same jobs, with the same credit
+        List<Cube> jobs = ConcurrentSolver.generateJobs(cube, poolSize * threads
+                * ConcurrentSolver.JOBS_PER_THREAD, new CubeCache(cube.getSize()));
+        jobDepth = jobs.get(0).getTwists();
+        for (int i = rank; i < jobs.size(); i += poolSize) {
+            long credit = Job.TOTAL_CREDIT / jobs.size();
+            if (i == 0) {
+                credit += Job.TOTAL_CREDIT % jobs.size();
+            }
+            share.add(new Job(jobs.get(i), credit));
+        }
+
+        searchThreads = new SearchThread[threads];
+        for (int i = 0; i < threads; i++) {
+            searchThreads[i] = new SearchThread();
+        }
+
+        replyReceiver = myIbis.createReceivePort(replyPortType, "reply");
+        replyReceiver.enableConnections();
+        ReceivePort requestReceiver = myIbis.createReceivePort(requestPortType,
+                "request", this);
+        requestReceiver.enableConnections();
+        requestReceiver.enableMessageUpcalls();
+        ReceivePort roundReceiver = null;
+        if (!master.equals(myIbis.identifier())) {
+            roundReceiver = myIbis.createReceivePort(roundPortType, "round",
+                    new RoundUpcall());
+            roundReceiver.enableConnections();
+            roundReceiver.enableMessageUpcalls();
+        }
+
+        for (SearchThread searchThread : searchThreads) {
+            searchThread.start();
+        }
+
+        try {
+            if (master.equals(myIbis.identifier())) { //  I AM MASTER
+                System.err.println("MASTER NODE:  jobs number is <" + jobs.size() + ">");
+                masterProc(cube);
+            } else { // I AM SLAVE
+                slaveProc();
+                System.err.println("SLAVE IS DONE...");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while solving", e);
+        } finally {
+            for (SendPort port : requestPorts.values()) {
+                port.close();
+            }
+            for (SendPort port : replyPorts.values()) {
+                port.close();
+            }
+            requestReceiver.close();
+            replyReceiver.close();
+            if (roundReceiver != null) {
+                roundReceiver.close();
+            }
+            myIbis.end();
+        }
+    }
+
+    /**
+     * Main procedure of master node. Searches with a growing bound, one round
+     * per bound, and tells the nodes to stop once a round has solutions, or
+     * a node was lost.
+     */
+    private void masterProc(Cube cube) throws IOException, InterruptedException {
+        SendPort roundPort = myIbis.createSendPort(roundPortType);
+        for (IbisIdentifier node : nodes) {
+            if (!node.equals(myIbis.identifier())) {
+                roundPort.connect(node, "round", CONNECT_TIMEOUT, true);
+            }
+        }
+
+        // bounds up to the depth of the jobs are searched from the cube
+        // itself, the jobs are too deep for them
+        Search search = new Search(cube.getSize(), ConcurrentSolver.PRINT_SOLUTION);
+        search.setHeuristic(heuristic);
+        search.setTranspositionTable(transpositions);
+        int bound = 0;
+        int result = 0;
+
+        System.out.print("Bound now:");
+
+        while (result == 0 && failure() == null) {
+            bound++;
+            System.out.print(" " + bound);
+            long start = System.nanoTime();
+            if (bound <= jobDepth) {
+                cube.setBound(bound);
+                result = search.solutions(cube);
+                metrics.add(name, search.takeStatistics());
+            } else {
+                synchronized (this) {
+                    roundCredit = 0;
+                    roundSolutions = 0;
+                }
+                broadcast(roundPort, bound);
+                startRound(bound);
+                synchronized (this) {
+                    while (roundCredit < Job.TOTAL_CREDIT && failure == null) {
+                        wait();
+                    }
+                    result = roundSolutions;
+                }
+            }
+            metrics.boundDone(bound, System.nanoTime() - start);
+        }
+
+        System.out.println();
+
+        broadcast(roundPort, STOP);
+        startRound(STOP);
+        joinSearchThreads();
+
+        // nobody steals from us any more once every node has stopped
+        synchronized (this) {
+            while (nodesDone.size() < nodes.size() - 1) {
+                wait();
+            }
+        }
+        broadcast(roundPort, EXIT);
+        roundPort.close();
+
+        if (failure() != null) {
+            throw failure();
+        }
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
+    /**
+     * Main procedure of slave node. The search threads do all the work, the
+     * main thread waits for them to stop, tells the master (with the
+     * statistics not reported yet), and waits until
+     * every node has stopped before leaving the pool.
+     */
+    private void slaveProc() throws IOException, InterruptedException {
+        joinSearchThreads();
+        if (failure() != null) {
+            // the master is gone, nobody to report to
+            throw failure();
+        }
+
+        SearchStatistics statistics;
+        synchronized (this) {
+            statistics = this.statistics.take();
+        }
+        SendPort port = requestPort(master);
+        synchronized (port) {
+            WriteMessage done = port.newMessage();
+            MessageObject.writeType(done, MessageObject.message_id.EMPTY_MESSAGE);
+            MessageObject.writeStatistics(done, statistics);
+            done.finish();
+        }
+
+        synchronized (this) {
+            while (!exit) {
+                wait();
+            }
+        }
+    }
+
+    private synchronized IOException failure() {
+        return failure;
+    }
+
+    private void joinSearchThreads() throws IOException, InterruptedException {
+        for (SearchThread searchThread : searchThreads) {
+            searchThread.join();
+            if (searchThread.error != null) {
+                throw searchThread.error;
+            }
+        }
+    }
+
+    /**
+     * Sends the bound of a new round to all other nodes.
+     */
+    private void broadcast(SendPort roundPort, int bound) throws IOException {
+        if (roundPort.connectedTo().length == 0) {
+            return;
+        }
+        WriteMessage message = roundPort.newMessage();
+        message.writeInt(bound);
+        message.finish();
+    }
+
+    /**
+     * Handles the bounds broadcast by the master.
+     */
+    private class RoundUpcall implements MessageUpcall {
+
+        public void upcall(ReadMessage message) throws IOException {
+            int bound = message.readInt();
+            message.finish();
+            startRound(bound);
+        }
+    }
+
+    /**
+     * Starts a round on this node, by queueing its share of the jobs with the
+     * new bound, or stops searching.
+     */
+    private synchronized void startRound(int bound) {
+        if (bound == EXIT) {
+            exit = true;
+        } else if (bound == STOP) {
+            stopped = true;
+        } else {
+            // the previous round is over, so nobody is using the jobs
+            for (Job job : share) {
+                job.getCube().setBound(bound);
+            }
+            deque.addAll(share);
+            nextSteal = 0;
+            stealDelay = STEAL_DELAY;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the next job for a search thread of this node. Steals one from
+     * a random other node when this node has none left, returns null once a
+     * solution has been found.
+     */
+    private Job nextJob() throws InterruptedException, IOException {
+        while (true) {
+            IbisIdentifier victim;
+            synchronized (this) {
+                while (true) {
+                    Job job = deque.pollFirst();
+                    if (job != null) {
+                        return job;
+                    }
+                    if (stopped) {
+                        return null;
+                    }
+                    long delay = nextSteal - System.currentTimeMillis();
+                    victim = stealing || delay > 0 ? null : victim();
+                    if (victim != null) {
+                        break;
+                    }
+                    if (stealing || delay <= 0) {
+                        // another thread steals for us, or there is nobody
+                        // left to steal from
+                        wait();
+                    } else {
+                        wait(delay);
+                    }
+                }
+                stealing = true;
+            }
+
+            Job job = null;
+            try {
+                // the node is idle, let the master know how far we got
+                reportResults();
+                long start = System.nanoTime();
+                job = steal(victim);
+                SearchStatistics statistics = new SearchStatistics();
+                statistics.addSteal(System.nanoTime() - start);
+                addStatistics(statistics);
+            } finally {
+                synchronized (this) {
+                    stealing = false;
+                    if (job == null) {
+                        nextSteal = System.currentTimeMillis() + stealDelay;
+                        stealDelay = Math.min(2 * stealDelay, MAX_STEAL_DELAY);
+                    } else {
+                        nextSteal = 0;
+                        stealDelay = STEAL_DELAY;
+                    }
+                    notifyAll();
+                }
+            }
+            if (job != null) {
+                return job;
+            }
+        }
+    }
+
+    /**
+     * Picks a random node other than this one, which was not lost.
+     *
+     * @return the node, or null if there is none
+     */
+    private synchronized IbisIdentifier victim() {
+        List<IbisIdentifier> others = new ArrayList<IbisIdentifier>(nodes);
+        others.remove(myIbis.identifier());
+        others.removeAll(lost);
+        if (others.isEmpty()) {
+            return null;
+        }
+        return others.get(random.nextInt(others.size()));
+    }
+
+    /**
+     * Asks a node for one of its jobs.
+     *
+     * @return the job, or null if the node had none
+     */
+    private Job steal(IbisIdentifier victim) throws IOException {
+        SendPort port = requestPort(victim);
+        synchronized (port) {
+            WriteMessage request = port.newMessage();
+            MessageObject.writeType(request, MessageObject.message_id.JOB_STEALING);
+            request.finish();
+        }
+
+        // only one thread steals at a time, so this is the reply
+        ReadMessage reply = null;
+        while (reply == null) {
+            try {
+                reply = replyReceiver.receive(REPLY_TIMEOUT);
+            } catch (ReceiveTimedOutException e) {
+                synchronized (this) {
+                    if (lost.contains(victim)) {
+                        return null;
+                    }
+                }
+            }
+        }
+        Job job = null;
+        if (MessageObject.readType(reply) == MessageObject.message_id.JOB_CUBE) {
+            long credit = reply.readLong();
+            job = new Job(Cube.readFrom(reply), credit);
+        }
+        reply.finish();
+        return job;
+    }
+
+    /**
+     * Sends the results of the jobs searched since the last report to the
+     * master.
+     */
+    private void reportResults() throws IOException {
+        long credit;
+        int solutions;
+        SearchStatistics statistics;
+        synchronized (this) {
+            if (this.credit == 0) {
+                return;
+            }
+            credit = this.credit;
+            solutions = this.solutions;
+            statistics = this.statistics.take();
+            this.credit = 0;
+            this.solutions = 0;
+        }
+        SendPort port = requestPort(master);
+        synchronized (port) {
+            WriteMessage report = port.newMessage();
+            MessageObject.writeType(report, MessageObject.message_id.JOB_RESULT);
+            report.writeLong(credit);
+            report.writeInt(solutions);
+            MessageObject.writeStatistics(report, statistics);
+            report.finish();
+        }
+    }
+
+    /**
+     * Returns the port to the request port of another node.
+     */
+    private SendPort requestPort(IbisIdentifier node) throws IOException {
+        synchronized (requestPorts) {
+            SendPort port = requestPorts.get(node);
+            if (port == null) {
+                port = myIbis.createSendPort(requestPortType);
+                port.connect(node, "request", CONNECT_TIMEOUT, true);
+                requestPorts.put(node, port);
+            }
+            return port;
+        }
+    }
+
+    /**
+     * Sends a job (or null) to a node stealing from us: the credit of the
+     * job and its cube.
+     */
+    private void reply(IbisIdentifier thief, Job job) throws IOException {
+        SendPort port;
+        synchronized (replyPorts) {
+            port = replyPorts.get(thief);
+            if (port == null) {
+                port = myIbis.createSendPort(replyPortType);
+                port.connect(thief, "reply", CONNECT_TIMEOUT, true);
+                replyPorts.put(thief, port);
+            }
+        }
+        synchronized (port) {
+            WriteMessage reply = port.newMessage();
+            if (job == null) {
+                MessageObject.writeType(reply, MessageObject.message_id.EMPTY_MESSAGE);
+            } else {
+                MessageObject.writeType(reply, MessageObject.message_id.JOB_CUBE);
+                reply.writeLong(job.getCredit());
+                job.getCube().writeTo(reply);
+            }
+            reply.finish();
+        }
+    }
+
+    /**
+     * Adds the children of a job which was split up to the front of the
+     * deque, for our own threads and for thieves.
+     */
+    private synchronized void addJobs(Job[] children) {
+        for (int i = children.length - 1; i >= 0; i--) {
+            deque.addFirst(children[i]);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Adds the result of a job searched by this node. The master counts it
+     * for the round right away, other nodes keep it until they are idle.
+     */
+    private synchronized void addResult(long credit, int solutions) {
+        if (master.equals(myIbis.identifier())) {
+            addRoundResult(credit, solutions);
+        } else {
+            this.credit += credit;
+            this.solutions += solutions;
+        }
+    }
+
+    /**
+     * Adds the statistics of searching or stealing on this node to its
+     * metrics. Other nodes than the master also keep them for their next
+     * report.
+     */
+    private synchronized void addStatistics(SearchStatistics statistics) {
+        metrics.add(name, statistics);
+        if (!master.equals(myIbis.identifier())) {
+            this.statistics.add(statistics);
+        }
+    }
+
+    /**
+     * Adds results to the round of the master, and wakes it up when all
+     * credit of the round is back.
+     */
+    private synchronized void addRoundResult(long credit, int solutions) {
+        roundCredit += credit;
+        roundSolutions += solutions;
+        if (roundCredit == Job.TOTAL_CREDIT) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Checks if a job can be split up.
+     */
+    private static boolean canSplit(Job job) {
+        Cube cube = job.getCube();
+        // number of children, see Cube.generateChildren()
+        int children = 6 * (cube.getSize() - 1);
+        return cube.getBound() - cube.getTwists() >= ConcurrentSolver.MIN_SPLIT_LEVELS
+                && job.canSplit(children);
+    }
+
+    /**
+     * Asks one of the search threads of this node to split up its job.
+     */
+    private void requestSplit() {
+        for (SearchThread searchThread : searchThreads) {
+            if (searchThread.split()) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void upcall(ReadMessage message) throws IOException, ClassNotFoundException {
+        IbisIdentifier origin = message.origin().ibisIdentifier();
+        MessageObject.message_id type = MessageObject.readType(message);
+        long credit = 0;
+        int solutions = 0;
+        SearchStatistics statistics = null;
+        if (type == MessageObject.message_id.JOB_RESULT) {
+            credit = message.readLong();
+            solutions = message.readInt();
+            statistics = MessageObject.readStatistics(message);
+        } else if (type == MessageObject.message_id.EMPTY_MESSAGE) {
+            statistics = MessageObject.readStatistics(message);
+        }
+        message.finish();
+
+        if (statistics != null) {
+            metrics.add(origin.name(), statistics);
+        }
+
+        if (type == MessageObject.message_id.JOB_STEALING) {
+            Job job;
+            synchronized (this) {
+                job = deque.pollLast();
+                if (job == null && !stopped) {
+                    // let the next thief find a job
+                    requestSplit();
+                }
+            }
+            reply(origin, job);
+        } else if (type == MessageObject.message_id.JOB_RESULT) {
+            addRoundResult(credit, solutions);
+        } else if (type == MessageObject.message_id.EMPTY_MESSAGE) {
+            // a node stopped searching
+            synchronized (this) {
+                nodesDone.add(origin);
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized void joined(IbisIdentifier joinedIbis) {
+        nodes.add(joinedIbis);
+        notifyAll();
+    }
+
+    /**
+     * Handles a node which died or left the pool. Before it stopped, its
+     * credit is lost and the master fails the solve. A node losing the master
+     * stops searching and leaves the pool.
+     */
+    private synchronized void nodeLost(IbisIdentifier node) {
+        if (!lost.add(node)) {
+            return;
+        }
+        // it will not tell the master it stopped
+        nodesDone.add(node);
+        if (!stopped && failure == null) {
+            if (node.equals(master)) {
+                failure = new IOException("lost the master " + node);
+                stopped = true;
+                exit = true;
+            } else if (master.equals(myIbis.identifier())) {
+                failure = new IOException("lost " + node
+                        + " before it stopped, the credit of its jobs cannot be recovered");
+            }
+        }
+        notifyAll();
+    }
+
+    public void left(IbisIdentifier leftIbis) {
+        nodeLost(leftIbis);
+    }
+
+    public void died(IbisIdentifier corpse) {
+        nodeLost(corpse);
+    }
+
+    public void gotSignal(String signal, IbisIdentifier source) {
+        // ignored
+    }
+
+    public void electionResult(String electionName, IbisIdentifier winner) {
+        // ignored
+    }
+
+    public void poolClosed() {
+        // ignored
+    }
+
+    public void poolTerminated(IbisIdentifier source) {
+        // ignored
+    }
+}
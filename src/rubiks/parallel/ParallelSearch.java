@@ -0,0 +1,226 @@
+package rubiks.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.MoveTable;
+import rubiks.cube.SearchStatistics;
+import rubiks.cube.TranspositionTable;
+import rubiks.sequential.Cube;
+import rubiks.sequential.Search;
+
+/**
+ * Depth first search for solutions of a cube using all cores of a machine.
+ * The top of the search tree is split into fork/join tasks: every cube with
+ * more than SEQUENTIAL_LEVELS twists left before the bound forks a task per
+ * (non redundant) child. Below that, the remaining subtree is searched by the
+ * sequential Search of the worker thread running the task, which keeps its
+ * own state stack, so searching a subtree allocates nothing.
+ *
+ * Solution counts are summed as tasks are joined, so no locking is needed,
+ * and work is balanced by the work stealing of the fork/join pool. In the
+ * same way, every worker thread counts the nodes of its own tasks, and the
+ * counts are only summed between searches.
+ *
+ */
+public class ParallelSearch {
+
+    // subtrees with at most this many twists left are searched sequentially
+    private static final int SEQUENTIAL_LEVELS = 5;
+
+    private final int size;
+
+    private final ForkJoinPool pool;
+
+    private final MoveTable table;
+
+    private volatile Heuristic heuristic = null;
+
+    private volatile TranspositionTable transpositions = null;
+
+    // every worker thread created by the pool
+    private final List<Worker> workers = new ArrayList<Worker>();
+
+    /**
+     * Worker thread with its own sequential search.
+     */
+    private final class Worker extends ForkJoinWorkerThread {
+
+        private Search search = null;
+
+        // counts of the tasks above the sequential searches
+        private final SearchStatistics statistics = new SearchStatistics();
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+            setDaemon(true);
+            synchronized (workers) {
+                workers.add(this);
+            }
+        }
+
+        Search search() {
+            if (search == null) {
+                search = new Search(size, false);
+            }
+            // heuristic may have been changed since the last task
+            search.setHeuristic(heuristic);
+            search.setTranspositionTable(transpositions);
+            return search;
+        }
+    }
+
+    /**
+     * Searches the subtree below a cube.
+     */
+    private final class SearchTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Cube cube;
+
+        private final int sequence;
+
+        private final int weight;
+
+        SearchTask(Cube cube, int sequence, int weight) {
+            this.cube = cube;
+            this.sequence = sequence;
+            this.weight = weight;
+        }
+
+        @Override
+        protected Integer compute() {
+            Worker worker = (Worker) Thread.currentThread();
+            if (cube.getBound() - cube.getTwists() <= SEQUENTIAL_LEVELS) {
+                return worker.search().solutions(cube, sequence, weight);
+            }
+
+            SearchStatistics statistics = worker.statistics;
+            if (cube.isSolved()) {
+                statistics.add(0, 1, 0, 0);
+                return weight;
+            }
+            if (!withinBound(cube)) {
+                statistics.add(0, 0, 1, 0);
+                return 0;
+            }
+
+            SearchTask[] children = new SearchTask[table.moves()];
+            int forked = 0;
+            for (int move = 0; move < children.length; move++) {
+                int childSequence = table.next(sequence, move);
+                if (childSequence < 0) {
+                    // redundant move
+                    continue;
+                }
+                Cube child = new Cube(cube);
+                cube.twist(move, child);
+                children[forked] = new SearchTask(child, childSequence,
+                        MoveTable.weight(weight, childSequence));
+                children[forked].fork();
+                forked++;
+            }
+            statistics.add(forked, 0, 0, 0);
+
+            int result = 0;
+            for (int i = forked - 1; i >= 0; i--) {
+                result += children[i].join();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Creates a new search for cubes of the given size.
+     *
+     * @param size
+     *            size of the cubes searched
+     * @param threads
+     *            number of worker threads to use
+     */
+    public ParallelSearch(int size, int threads) {
+        this.size = size;
+        this.table = MoveTable.forSize(size);
+        this.pool = new ForkJoinPool(threads,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        return new Worker(pool);
+                    }
+                }, null, false);
+    }
+
+    /**
+     * Sets the heuristic used to prune the search.
+     *
+     * @param heuristic
+     *            lower bound for cubes searched, null to search without one
+     */
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Sets the table subtree counts are stored in and looked up from, shared
+     * by all worker threads.
+     *
+     * @param transpositions
+     *            table to use, null to search without one
+     */
+    public void setTranspositionTable(TranspositionTable transpositions) {
+        this.transpositions = transpositions;
+    }
+
+    /**
+     * Finds the number of solutions for a given cube. Only searches to the
+     * bound set in the cube object. Gives the same result as Search.solutions.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube) {
+        return pool.invoke(new SearchTask(new Cube(cube), MoveTable.START, 1));
+    }
+
+    /**
+     * Statistics of the searches done since the previous call, summed over
+     * all worker threads. Must not be called while searching.
+     *
+     * @return the statistics
+     */
+    public SearchStatistics takeStatistics() {
+        SearchStatistics result = new SearchStatistics();
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                result.add(worker.statistics.take());
+                if (worker.search != null) {
+                    result.add(worker.search.takeStatistics());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Checks if a cube can still be solved within its bound, according to
+     * the heuristic.
+     */
+    private boolean withinBound(Cube cube) {
+        Heuristic heuristic = this.heuristic;
+        return heuristic == null
+                || cube.getTwists() + cube.lowerBound(heuristic) <= cube
+                        .getBound();
+    }
+}
@@ -0,0 +1,241 @@
+package rubiks.parallel;
+
+import java.io.File;
+import java.io.IOException;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.TranspositionTable;
+import rubiks.sequential.Cube;
+
+/**
+ * Multithreaded solver for rubik's cube puzzle, using all cores of a single
+ * machine.
+ *
+ * @author Niels Drost, Timo van Kessel
+ *
+ */
+public class Rubiks {
+
+    /**
+     * Solves a Rubik's cube by iteratively searching for solutions with a
+     * greater depth. This guarantees the optimal solution is found. Repeats all
+     * work for the previous iteration each iteration though...
+     *
+     * @param cube
+     *            the cube to solve
+     * @param heuristic
+     *            heuristic to prune the search with, or null
+     * @param transpositions
+     *            table to reuse subtree counts from, or null
+     * @param threads
+     *            number of threads to search with
+     * @param metrics
+     *            metrics to add the statistics and time of every bound to
+     */
+    private static void solve(Cube cube, Heuristic heuristic,
+            TranspositionTable transpositions, int threads, Metrics metrics) {
+        // worker threads and their search state are created once, and reused
+        // for every bound
+        ParallelSearch search = new ParallelSearch(cube.getSize(), threads);
+        search.setHeuristic(heuristic);
+        search.setTranspositionTable(transpositions);
+        int bound = 0;
+        int result = 0;
+
+        System.out.print("Bound now:");
+
+        while (result == 0) {
+            bound++;
+            cube.setBound(bound);
+
+            System.out.print(" " + bound);
+            long start = System.nanoTime();
+            result = search.solutions(cube);
+            metrics.add(search.takeStatistics());
+            metrics.boundDone(bound, System.nanoTime() - start);
+        }
+        search.shutdown();
+
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
+    public static void printUsage() {
+        System.out.println("Rubiks Cube solver");
+        System.out.println("");
+        System.out
+                .println("Does a number of random twists, then solves the rubiks cube with a simple");
+        System.out
+                .println(" brute-force approach, using multiple threads. Can also take a file as input");
+        System.out.println("");
+        System.out.println("USAGE: Rubiks [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out.println("--size SIZE\t\tSize of cube (default: 3)");
+        System.out
+                .println("--twists TWISTS\t\tNumber of random twists (default: 11)");
+        System.out
+                .println("--seed SEED\t\tSeed of random generator (default: 0");
+        System.out
+                .println("--threads THREADS\t\tNumber of threads to use (default: number of processors)");
+        System.out.println("");
+        System.out
+                .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--packed\t\tStore cubes packed in longs (3 bits per element), a fraction of the memory but a slower search");
+        System.out
+                .println("--count-misplaced\t\tKeep a count of misplaced stickers in every cube, for a constant time solved check");
+        System.out
+                .println("--pdb DIR\t\tPrune the search with the pattern databases in DIR, generated there if missing (see PatternDatabaseGenerator)");
+        System.out
+                .println("--tt MEGABYTES\t\tReuse subtree solution counts from a transposition table of at most MEGABYTES");
+        System.out
+                .println("--tt-policy POLICY\t\tReplacement policy of the transposition table, depth or always (default: depth)");
+        System.out
+                .println("--metrics FILE\t\tExport search metrics to FILE, as CSV if it ends in .csv, JSON otherwise");
+        System.out
+                .println("--metrics-interval SECONDS\t\tAlso export the metrics every SECONDS while solving");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        Cube cube = null;
+
+        // default parameters of puzzle
+        int size = 3;
+        int twists = 11;
+        int seed = 0;
+        String fileName = null;
+        String pdbDirectory = null;
+
+        // size of the transposition table, 0 to search without one
+        int transpositionMegabytes = 0;
+        TranspositionTable.Policy transpositionPolicy = TranspositionTable.Policy.DEPTH;
+
+        // file to export metrics to, and seconds between exports (0 to only
+        // export at the end)
+        String metricsFile = null;
+        int metricsInterval = 0;
+
+        // number of threads used to solve puzzle
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--twists")) {
+                i++;
+                twists = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--seed")) {
+                i++;
+                seed = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--file")) {
+                i++;
+                fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--pdb")) {
+                i++;
+                pdbDirectory = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--tt")) {
+                i++;
+                transpositionMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--tt-policy")) {
+                i++;
+                transpositionPolicy = TranspositionTable.Policy
+                        .valueOf(arguments[i].toUpperCase());
+            } else if (arguments[i].equalsIgnoreCase("--metrics")) {
+                i++;
+                metricsFile = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--metrics-interval")) {
+                i++;
+                metricsInterval = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--packed")) {
+                Cube.setPacked(true);
+            } else if (arguments[i].equalsIgnoreCase("--count-misplaced")) {
+                Cube.setCountMisplaced(true);
+            } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        // create cube
+        if (fileName == null) {
+            cube = new Cube(size, twists, seed);
+        } else {
+            try {
+                cube = new Cube(fileName);
+            } catch (Exception e) {
+                System.err.println("Cannot load cube from file: " + e);
+                System.exit(1);
+            }
+        }
+
+        // load pattern databases
+        Heuristic heuristic = null;
+        if (pdbDirectory != null) {
+            try {
+                heuristic = Heuristic.load(new File(pdbDirectory), cube
+                        .getSize());
+            } catch (IOException e) {
+                System.err.println("Cannot load pattern databases: " + e);
+                System.exit(1);
+            }
+        }
+
+        TranspositionTable transpositions = null;
+        if (transpositionMegabytes > 0) {
+            transpositions = new TranspositionTable(
+                    transpositionMegabytes * 1024L * 1024L, transpositionPolicy);
+        }
+
+        // print cube info
+        System.out.println("Searching for solution for cube of size "
+                + cube.getSize() + ", twists = " + twists + ", seed = " + seed);
+        cube.print(System.out);
+        System.out.flush();
+
+
+        Metrics metrics = new Metrics();
+        if (metricsFile != null && metricsInterval > 0) {
+            metrics.exportEvery(new File(metricsFile), metricsInterval * 1000L);
+        }
+
+        // solve
+        long start = System.currentTimeMillis();
+        solve(cube, heuristic, transpositions, threads, metrics);
+        long end = System.currentTimeMillis();
+        metrics.stop();
+
+        // NOTE: this is printed to standard error! The rest of the output is
+        // constant for each set of parameters. Printing this to standard error
+        // makes the output of standard out comparable with "diff"
+        System.err.println("Solving cube took " + (end - start)
+                + " milliseconds");
+        metrics.print(System.err);
+        if (metricsFile != null) {
+            try {
+                metrics.export(new File(metricsFile));
+            } catch (IOException e) {
+                System.err.println("Cannot export metrics: " + e);
+            }
+        }
+
+    }
+
+}
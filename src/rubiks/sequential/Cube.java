@@ -5,8 +5,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
+import rubiks.cube.Heuristic;
+import rubiks.cube.Misplaced;
+import rubiks.cube.MoveTable;
+import rubiks.cube.PackedLayout;
+import rubiks.cube.Pieces;
+import rubiks.cube.Zobrist;
+
 /**
  * @author Niels Drost
  *
@@ -54,17 +62,57 @@ public class Cube implements Serializable {
 
     public static final byte YELLOW = 5; // value for yellow element
 
+    // representation used for newly created cubes
+    private static boolean packedByDefault = false;
+
+    // if newly created cubes count their misplaced stickers
+    private static boolean countedByDefault = false;
+
     private int size; // size of this cube
 
     /*
-     * content of the cube. Data format is an array of sides, with all the
-     * elements of each side as an array of bytes.
+     * content of the cube. Data format is a single array with all sides after
+     * each other, each side being size * size elements.
      *
      * expanded view of cube (with starting colors, top = white):
      *
      * W BOGR Y
+     *
+     * Only used if the cube is not packed.
+     */
+    private byte[] data;
+
+    /*
+     * content of the cube in packed form, 3 bits per element, see
+     * PackedLayout. Only used if the cube is packed.
      */
-    private final byte[][] data;
+    private long[] words;
+
+    private transient PackedLayout layout;
+
+    private transient MoveTable moveTable;
+
+    private transient Zobrist zobrist;
+
+    // Zobrist hash of the stickers, only valid if hashed. Kept up to date by
+    // the twists of a hashed cube
+    private long hash;
+
+    private boolean hashed;
+
+    // misplaced stickers of each color, see Misplaced.table. Like
+    // sideOfColor, shared by all cubes derived from this one
+    private transient byte[] misplacedTable;
+
+    // number of misplaced stickers, only valid if counted. Kept up to date by
+    // the twists of a counted cube
+    private int misplaced;
+
+    private boolean counted;
+
+    // side each color belongs to, see Pieces.sideOfColor. Never changes by
+    // twisting, so it is shared by all cubes derived from this one
+    private transient byte[] sideOfColor;
 
     private int twists; // number of twists this cube is a result of
 
@@ -79,8 +127,8 @@ public class Cube implements Serializable {
     public Cube(int size) {
         this.size = size;
 
-        // init data arrays
-        data = new byte[SIDES][size * size];
+        // init data array
+        data = new byte[SIDES * size * size];
 
         twists = 0;
         bound = 0;
@@ -88,9 +136,16 @@ public class Cube implements Serializable {
         // init state. side 0 should be white, side 1 is yellow, etc.
         for (byte side = 0; side < SIDES; side++) {
             for (int element = 0; element < size * size; element++) {
-                data[side][element] = side;
+                data[(side * size * size) + element] = side;
             }
         }
+
+        if (packedByDefault) {
+            pack();
+        }
+        if (countedByDefault) {
+            countMisplaced();
+        }
     }
 
     /**
@@ -116,17 +171,7 @@ public class Cube implements Serializable {
             int row = random.nextInt(size - 1) + 1;
             boolean direction = random.nextBoolean();
 
-            switch (axis) {
-            case 0:
-                twistX(row, direction);
-                break;
-            case 1:
-                twistY(row, direction);
-                break;
-            case 2:
-                twistZ(row, direction);
-                break;
-            }
+            twist(axis, row, direction);
         }
 
         // set twists back to 0
@@ -147,17 +192,19 @@ public class Cube implements Serializable {
         this.size = original.size;
         this.twists = original.twists;
         this.bound = original.bound;
-
-        // init data arrays
-        data = new byte[SIDES][size * size];
-
-        // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            for (int j = 0; j < size * size; j++) {
-                data[i][j] = original.data[i][j];
-            }
+        this.sideOfColor = original.sideOfColor;
+        this.hash = original.hash;
+        this.hashed = original.hashed;
+        this.misplacedTable = original.misplacedTable;
+        this.misplaced = original.misplaced;
+        this.counted = original.counted;
+
+        if (original.words != null) {
+            words = original.words.clone();
+            return;
         }
 
+        data = original.data.clone();
     }
 
     public Cube(String fileName) throws Exception {
@@ -179,8 +226,8 @@ public class Cube implements Serializable {
                                 + sizeString);
             }
 
-            // init data arrays
-            data = new byte[SIDES][size * size];
+            // init data array
+            data = new byte[SIDES * size * size];
 
             for (int i = 0; i < SIDES; i++) {
                 for (int x = 0; x < size; x++) {
@@ -195,7 +242,7 @@ public class Cube implements Serializable {
                         byte color = parseElement(line.charAt(y));
                         int elementIndex = element(x, y);
 
-                        data[i][elementIndex] = color;
+                        data[(i * size * size) + elementIndex] = color;
                     }
 
                 }
@@ -205,6 +252,46 @@ public class Cube implements Serializable {
                 reader.close();
             }
         }
+
+        if (packedByDefault) {
+            pack();
+        }
+        if (countedByDefault) {
+            countMisplaced();
+        }
+    }
+
+    /**
+     * Selects the representation of all cubes created from now on. Packed
+     * cubes store 3 bits per element in a few longs, and are twisted using
+     * whole words at a time. That saves memory, but twists are slower than on
+     * bytes, see PackedLayout.
+     *
+     * @param packed
+     *            if true, new cubes are packed
+     */
+    public static void setPacked(boolean packed) {
+        packedByDefault = packed;
+    }
+
+    /**
+     * Selects if all cubes created from now on count their misplaced
+     * stickers, see countMisplaced().
+     *
+     * @param counted
+     *            if true, new cubes count their misplaced stickers
+     */
+    public static void setCountMisplaced(boolean counted) {
+        countedByDefault = counted;
+    }
+
+    /**
+     * Returns if this cube uses the packed representation.
+     *
+     * @return true if packed, false if not
+     */
+    public boolean isPacked() {
+        return words != null;
     }
 
     /**
@@ -217,11 +304,29 @@ public class Cube implements Serializable {
         target.size = size;
         target.twists = twists;
         target.bound = bound;
+        target.sideOfColor = sideOfColor;
+        target.hash = hash;
+        target.hashed = hashed;
+        target.misplacedTable = misplacedTable;
+        target.misplaced = misplaced;
+        target.counted = counted;
+
+        if (words != null) {
+            if (target.words == null || target.words.length != words.length) {
+                target.words = new long[words.length];
+                target.data = null;
+            }
+            System.arraycopy(words, 0, target.words, 0, words.length);
+            return;
+        }
 
-        // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            System.arraycopy(data[i], 0, target.data[i], 0, data[i].length);
+        if (target.data == null || target.data.length != data.length) {
+            target.data = new byte[data.length];
+            target.words = null;
         }
+
+        // init state.
+        System.arraycopy(data, 0, target.data, 0, data.length);
     }
 
     /**
@@ -264,16 +369,28 @@ public class Cube implements Serializable {
     }
 
     /**
-     * Returns if this cube is solved or not.
+     * Returns if this cube is solved or not. A cube counting its misplaced
+     * stickers compares the count to 0. Otherwise all stickers are compared
+     * to the first one of their side, stopping at the first one that
+     * differs, for almost all cubes of a search one of the first few.
      *
      * @return true if solved, false if not
      */
     public boolean isSolved() {
-        for (byte i = 0; i < SIDES; i++) {
+        if (counted) {
+            return misplaced == 0;
+        }
+
+        if (words != null) {
+            return layout().isSolved(words);
+        }
+
+        int elements = size * size;
+        for (int first = 0; first < data.length; first += elements) {
             // all elements must be the same color as first element
-            byte color = data[i][0];
-            for (int j = 1; j < size * size; j++) {
-                if (data[i][j] != color) {
+            byte color = data[first];
+            for (int j = first + 1; j < first + elements; j++) {
+                if (data[j] != color) {
                     return false;
                 }
             }
@@ -330,23 +447,179 @@ public class Cube implements Serializable {
         }
 
         Cube result = cache.get();
-        this.copyTo(result);
+        twist(MoveTable.move(size, axis.ordinal(), row, direction), result);
+        return result;
+    }
 
-        switch (axis) {
-        case X:
-            result.twistX(row, direction);
-            break;
-        case Y:
-            result.twistY(row, direction);
-            break;
-        case Z:
-            result.twistZ(row, direction);
-            break;
-        default:
-            // should not happen, but you never know :)
-            throw new Error("unknown axis in twist");
+    /**
+     * Twist the cube, storing the result in a given cube. Does not allocate
+     * anything if the target already has the same size and representation as
+     * this cube.
+     *
+     * @param move
+     *            index of the move, see MoveTable
+     * @param result
+     *            cube to store the result in, must not be this cube
+     */
+    public void twist(int move, Cube result) {
+        result.size = size;
+        result.twists = twists + 1;
+        result.bound = bound;
+        result.sideOfColor = sideOfColor;
+        result.hashed = hashed;
+        result.misplacedTable = misplacedTable;
+        result.counted = counted;
+
+        // twist straight from this cube into the result, no copy needed
+        if (words != null) {
+            if (result.words == null || result.words.length != words.length) {
+                result.words = new long[words.length];
+                result.data = null;
+            }
+            layout().twist(move, words, result.words);
+            if (hashed) {
+                result.hash = keys().twist(hash, moveTable(), move, words);
+            }
+            if (counted) {
+                result.misplaced = Misplaced.twist(misplaced, moveTable(), move,
+                        words, misplacedTable);
+            }
+        } else {
+            if (result.data == null || result.data.length != data.length) {
+                result.data = new byte[data.length];
+                result.words = null;
+            }
+            moveTable().twist(move, data, result.data);
+            if (hashed) {
+                result.hash = keys().twist(hash, moveTable(), move, data);
+            }
+            if (counted) {
+                result.misplaced = Misplaced.twist(misplaced, moveTable(), move,
+                        data, misplacedTable);
+            }
         }
-        return result;
+    }
+
+    /**
+     * Copies the stickers of this cube in packed form, see PackedLayout,
+     * whatever the representation of this cube.
+     *
+     * @param target
+     *            words to store the packed stickers in
+     */
+    public void packTo(long[] target) {
+        if (words != null) {
+            System.arraycopy(words, 0, target, 0, words.length);
+        } else {
+            layout().pack(data, target);
+        }
+    }
+
+    /**
+     * Zobrist hash of the stickers of this cube, the same for both
+     * representations. The hash is kept up to date by the twists, updating
+     * only the moved stickers, so this costs nothing unless the hash was
+     * dropped.
+     *
+     * @return the hash
+     */
+    public long zobrist() {
+        if (!hashed) {
+            hash = computeHash();
+            hashed = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Stops keeping the Zobrist hash of this cube up to date, and of the cubes
+     * twisted from it, until zobrist() is called again. Saves updating the
+     * hash on every twist where no hash is needed.
+     */
+    public void dropZobrist() {
+        hashed = false;
+    }
+
+    /**
+     * Starts keeping the number of misplaced stickers of this cube up to date,
+     * and of the cubes twisted from it, so isSolved() is a single comparison.
+     * Every twist then updates the count from the moved stickers. Does nothing
+     * if the colors of this cube are not consistent.
+     */
+    public void countMisplaced() {
+        if (counted || sideOfColor() == null) {
+            return;
+        }
+        if (misplacedTable == null) {
+            misplacedTable = Misplaced.table(size, sideOfColor);
+        }
+        if (words != null) {
+            misplaced = Misplaced.count(words, misplacedTable);
+        } else {
+            misplaced = Misplaced.count(data, misplacedTable);
+        }
+        counted = true;
+    }
+
+    /**
+     * Cubes are equal if they have the same size and the same color on every
+     * sticker, whatever their representation. The twists and bound are state
+     * of the search, not of the cube, and are not compared.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof Cube)) {
+            return false;
+        }
+        Cube other = (Cube) object;
+        if (size != other.size || zobrist() != other.zobrist()) {
+            return false;
+        }
+        if (words != null && other.words != null) {
+            return Arrays.equals(words, other.words);
+        }
+        if (data != null && other.data != null) {
+            return Arrays.equals(data, other.data);
+        }
+        for (int i = 0; i < SIDES * size * size; i++) {
+            if (getElement(0, i) != other.getElement(0, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash code derived from the Zobrist hash, consistent with equals().
+     * Twisting a cube changes its hash code, so do not twist cubes stored in
+     * a hash set or map.
+     */
+    @Override
+    public int hashCode() {
+        long hash = zobrist();
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Lower bound for the number of twists still needed to solve this cube.
+     *
+     * @param heuristic
+     *            pattern databases to use
+     * @return minimum number of twists needed, 0 if this cube is not
+     *         consistent
+     */
+    public int lowerBound(Heuristic heuristic) {
+        if (sideOfColor() == null) {
+            return 0;
+        }
+
+        if (words != null) {
+            return heuristic.estimate(words, sideOfColor);
+        }
+        return heuristic.estimate(data, sideOfColor);
     }
 
     /**
@@ -390,202 +663,140 @@ public class Cube implements Serializable {
     // *** Only private functions ahead. No need to understand those ;) ***\\
 
     /**
-     * Computes the "inverse" of a row or column (last = first, etc)
-     *
-     * @param value
-     *            original value
-     * @return inverse of value (last = first, etc)
+     * Returns the packed layout for the size of this cube.
      */
-    private int inverse(int value) {
-        return size - 1 - value;
+    private PackedLayout layout() {
+        if (layout == null) {
+            layout = PackedLayout.forSize(size);
+        }
+        return layout;
     }
 
     /**
-     * Computes the position into the data array for each side from the row and
-     * column
-     *
-     * @param row
-     *            row of element
-     * @param column
-     *            column of element
-     * @return position in array of element
+     * Returns the Zobrist keys for the size of this cube.
      */
-    private int element(int row, int column) {
-        return (row * size) + column;
+    private Zobrist keys() {
+        if (zobrist == null) {
+            zobrist = Zobrist.forSize(size);
+        }
+        return zobrist;
     }
 
     /**
-     * rotate side of a cube (side effect of twisting)
-     *
-     * @param side
-     *            side to turn
-     * @param direction
-     *            direction to turn side in (positive or negative)
+     * Returns the side each color belongs to, see Pieces.sideOfColor, or null
+     * if this cube is not consistent.
      */
-    private void rotate(int side, boolean direction) {
-        byte[] result = new byte[size * size];
-
-        if (direction) {
-            for (int row = 0; row < size; row++) {
-                int toColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int toRow = column;
-                    // System.out.println(row + "," + column + " <= " + toRow
-                    // + "," + toColumn);
-                    result[(toRow * size) + toColumn] = data[side][(row * size)
-                            + column];
-                }
-            }
-        } else {
-            for (int row = 0; row < size; row++) {
-                int fromColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int fromRow = column;
-                    // System.out.println(row + "," + column + " <= " + fromRow
-                    // + "," + fromColumn);
-                    result[(row * size) + column] = data[side][(fromRow * size)
-                            + fromColumn];
-                }
+    private byte[] sideOfColor() {
+        if (sideOfColor == null) {
+            byte[] stickers = new byte[SIDES * size * size];
+            for (int i = 0; i < stickers.length; i++) {
+                stickers[i] = getElement(0, i);
             }
+            sideOfColor = Pieces.forSize(size).sideOfColor(stickers);
         }
-
-        System.arraycopy(result, 0, data[side], 0, result.length);
+        return sideOfColor;
     }
 
     /**
-     * Twist cube on the X-axis.
-     *
-     * @param firstRow
-     *            first row which to turn ( 0 < row < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * Computes the Zobrist hash of this cube from all of its stickers.
      */
-    private void twistX(int firstRow, boolean direction) {
-        // System.out.println("Twisting over X axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        int firstElement = firstRow * size;
-
-        // warning: fiddling with cube content ahead :)
-        for (int element = firstElement; element < size * size; element++) {
-
-            if (direction) {
-                byte tmp = data[BACK][element];
-                data[BACK][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[FRONT][element];
-                data[FRONT][element] = data[LEFT][element];
-                data[LEFT][element] = tmp;
-            } else {
-                byte tmp = data[LEFT][element];
-                data[LEFT][element] = data[FRONT][element];
-                data[FRONT][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[BACK][element];
-                data[BACK][element] = tmp;
-            }
+    private long computeHash() {
+        if (words != null) {
+            return keys().hash(words);
         }
+        return keys().hash(data);
+    }
 
-        rotate(BOTTOM, direction);
+    /**
+     * Returns the move table for the size of this cube.
+     */
+    private MoveTable moveTable() {
+        if (moveTable == null) {
+            moveTable = MoveTable.forSize(size);
+        }
+        return moveTable;
+    }
 
-        // record this twist
-        twists++;
+    /**
+     * Converts this cube to the packed representation.
+     */
+    private void pack() {
+        words = new long[layout().words()];
+        layout().pack(data, words);
+        data = null;
     }
 
     /**
-     * Twist cube on the Y-axis.
+     * Returns the color of an element, regardless of the representation.
      *
-     * @param firstColumn
-     *            first column which to turn ( 0 < column < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * @param side
+     *            side of the element
+     * @param element
+     *            position of the element within the side
+     * @return color of the element
      */
-    private void twistY(int firstColumn, boolean direction) {
-        // System.out.println("Twisting over Y axis, first column " +
-        // firstColumn
-        // + " in positive direction: " + direction);
-
-        for (int row = 0; row < size; row++) {
-            for (int column = firstColumn; column < size; column++) {
-                int element = (row * size) + column;
-
-                // back is "mirrored"
-                int backRow = inverse(row);
-                int backColumn = inverse(column);
-                int backElement = (backRow * size) + backColumn;
-
-                if (direction) {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[FRONT][element];
-                    data[FRONT][element] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[BACK][backElement];
-                    data[BACK][backElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[BACK][backElement];
-                    data[BACK][backElement] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[FRONT][element];
-                    data[FRONT][element] = tmp;
-                }
-            }
+    private byte getElement(int side, int element) {
+        if (words != null) {
+            return PackedLayout.get(words, (side * size * size) + element);
         }
-        rotate(RIGHT, direction);
-
-        // record this twist
-        twists++;
-
+        return data[(side * size * size) + element];
     }
 
     /**
-     * Twist cube on the Z-axis.
+     * Twist this cube in place.
      *
-     * @param firstRow
+     * @param axis
+     *            axis to turn cube on (0 = X, 1 = Y, 2 = Z)
+     * @param row
      *            first row which to turn ( 0 < row < size )
      * @param direction
      *            direction to turn, either positive or negative
      */
-    private void twistZ(int firstRow, boolean direction) {
-        // System.out.println("Twisting over Z axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        for (int row = firstRow; row < size; row++) {
-            for (int column = 0; column < size; column++) {
-                int topRow = inverse(row);
-                int topColumn = column;
-                int topElement = element(topRow, topColumn);
-
-                int rightRow = column;
-                int rightColumn = row;
-                int rightElement = element(rightRow, rightColumn);
-
-                int bottomRow = row;
-                int bottomColumn = inverse(column);
-                int bottomElement = element(bottomRow, bottomColumn);
-
-                int leftRow = inverse(column);
-                int leftColumn = inverse(row);
-                int leftElement = element(leftRow, leftColumn);
-
-                if (direction) {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = tmp;
-                }
+    private void twist(int axis, int row, boolean direction) {
+        int move = MoveTable.move(size, axis, row, direction);
+
+        if (words != null) {
+            long[] result = new long[words.length];
+            layout().twist(move, words, result);
+            if (hashed) {
+                hash = keys().twist(hash, moveTable(), move, words);
+            }
+            if (counted) {
+                misplaced = Misplaced.twist(misplaced, moveTable(), move,
+                        words, misplacedTable);
+            }
+            words = result;
+        } else {
+            byte[] result = new byte[data.length];
+            moveTable().twist(move, data, result);
+            if (hashed) {
+                hash = keys().twist(hash, moveTable(), move, data);
+            }
+            if (counted) {
+                misplaced = Misplaced.twist(misplaced, moveTable(), move,
+                        data, misplacedTable);
             }
+            data = result;
         }
 
-        rotate(BACK, !direction);
-
         // record this twist
         twists++;
     }
 
+    /**
+     * Computes the position into the data array for each side from the row and
+     * column
+     *
+     * @param row
+     *            row of element
+     * @param column
+     *            column of element
+     * @return position in array of element
+     */
+    private int element(int row, int column) {
+        return (row * size) + column;
+    }
+
     /**
      * Checks if consistent. Not a very good check, as only the absence of
      * pieces is checked. If the cube is in a reachable state is not checked.
@@ -596,7 +807,7 @@ public class Cube implements Serializable {
 
         for (int side = 0; side < SIDES; side++) {
             for (int element = 0; element < size * size; element++) {
-                int color = data[side][element];
+                int color = getElement(side, element);
 
                 counts[color]++;
             }
@@ -638,7 +849,7 @@ public class Cube implements Serializable {
         // System.err.println("printing side = " + side + " row = " + row
         // + " column = " + column);
 
-        byte color = data[side][(row * size) + column];
+        byte color = getElement(side, (row * size) + column);
 
         switch (color) {
         case WHITE:
@@ -0,0 +1,268 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.MoveTable;
+import rubiks.cube.PackedLayout;
+import rubiks.cube.Pieces;
+import rubiks.cube.SearchStatistics;
+import rubiks.cube.StateTable;
+
+/**
+ * Meet in the middle search for solutions of a cube. Instead of searching all
+ * sequences of twists up to the bound, it stores every cube a fixed number of
+ * twists away from the solved cube, with the number of sequences leading to
+ * it, and only searches from the cube to be solved until it is that many
+ * twists from the bound. Every cube reached there is looked up, and the
+ * solutions through it are the sequences leading to it times the sequences
+ * of the stored cube. As the inverse of every twist is a twist too, there
+ * are as many sequences from the solved cube to a cube as back.
+ *
+ * The stored cubes are half the bound away from the solved cube, so the
+ * search expands roughly the square root of the nodes of Search. They are
+ * kept between bounds, and grow one twist every other bound, as long as they
+ * fit in memory. Once they do not, the search goes deeper from the cube
+ * itself instead.
+ *
+ * The number of solutions is the same as the one of Search, for the first
+ * bound at which solutions exist: the forward search skips redundant moves
+ * and counts with the weight of its sequence (see MoveTable.next), and the
+ * stored counts include every sequence. Sequences with redundant moves never
+ * reach the solved cube at that bound, or a lower bound would have had
+ * solutions too. Solutions are counted, not printed.
+ *
+ * A search object is not thread safe, use one per thread.
+ *
+ */
+public class MeetInTheMiddle {
+
+    private final int size;
+
+    private final MoveTable table;
+
+    private final PackedLayout layout;
+
+    private final int moves;
+
+    // maximum memory of the stored cubes of a single distance
+    private final long bytes;
+
+    private Heuristic heuristic = null;
+
+    // solved cube the stored cubes were generated from
+    private long[] solved = null;
+
+    // cubes at exactly distance twists from the solved cube, with the number
+    // of sequences leading to them
+    private StateTable around = null;
+
+    private int distance = 0;
+
+    // set once the cubes at the next distance do not fit in memory
+    private boolean full = false;
+
+    // cube per level of the forward search, and packed leaf cube
+    private Cube[] cubes = new Cube[0];
+
+    private final long[] leaf;
+
+    // cubes reached by the forward search, the looked up ones are its leaves
+    private final SearchStatistics statistics = new SearchStatistics();
+
+    /**
+     * Creates a new search for cubes of the given size.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param bytes
+     *            maximum memory used for the stored cubes
+     */
+    public MeetInTheMiddle(int size, long bytes) {
+        this.size = size;
+        this.table = MoveTable.forSize(size);
+        this.layout = PackedLayout.forSize(size);
+        this.moves = table.moves();
+        // the next distance is generated while the last one is kept
+        this.bytes = bytes / 2;
+        this.leaf = new long[layout.words()];
+    }
+
+    /**
+     * Sets the heuristic used to prune the forward search.
+     *
+     * @param heuristic
+     *            pattern databases to use, null to search without pruning
+     */
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Distance from the solved cube of the stored cubes.
+     *
+     * @return the number of twists
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Statistics of the forward searches done since the previous call.
+     *
+     * @return the statistics
+     */
+    public SearchStatistics takeStatistics() {
+        return statistics.take();
+    }
+
+    /**
+     * Finds the number of solutions for a given cube. Only searches to the
+     * bound set in the cube object. Gives the same number as Search, as long
+     * as no solutions exist for a lower bound.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube) {
+        if (cube.isSolved()) {
+            return 1;
+        }
+
+        if (cube.getTwists() >= cube.getBound() || !withinBound(cube)) {
+            return 0;
+        }
+
+        long[] target = solvedCube(cube);
+        if (solved == null || !Arrays.equals(solved, target)) {
+            solved = target;
+            around = new StateTable(layout.words(), bytes);
+            around.add(solved, 1);
+            distance = 0;
+            full = false;
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        while (distance < left / 2 && !full) {
+            expand();
+        }
+
+        int levels = left - distance;
+        if (cubes.length <= levels) {
+            cubes = new Cube[levels + 1];
+            for (int i = 0; i < cubes.length; i++) {
+                cubes[i] = new Cube(cube);
+            }
+        }
+        cube.copyTo(cubes[0]);
+        cubes[0].dropZobrist();
+
+        return forward(0, levels, MoveTable.START, 1);
+    }
+
+    // *** Only private functions ahead ***\\
+
+    /**
+     * Counts the solutions below the cube of a level, by searching the given
+     * number of levels and looking up the cubes reached.
+     */
+    private int forward(int depth, int levels, int sequence, int weight) {
+        Cube cube = cubes[depth];
+        if (levels == 0) {
+            statistics.add(0, 1, 0, 0);
+            cube.packTo(leaf);
+            return weight * around.get(leaf);
+        }
+
+        int found = 0;
+        int nodes = 0;
+        int pruned = 0;
+        Cube child = cubes[depth + 1];
+        for (int move = 0; move < moves; move++) {
+            int childSequence = table.next(sequence, move);
+            if (childSequence < 0) {
+                // redundant move
+                continue;
+            }
+
+            cube.twist(move, child);
+            nodes++;
+            if (withinBound(child)) {
+                found += forward(depth + 1, levels - 1, childSequence,
+                        MoveTable.weight(weight, childSequence));
+            } else {
+                pruned++;
+            }
+        }
+        statistics.add(nodes, 0, pruned, 0);
+        return found;
+    }
+
+    /**
+     * Generates the cubes one twist further away from the solved cube, with
+     * all sequences leading to them. Keeps the current ones if the new ones
+     * do not fit in memory.
+     */
+    private void expand() {
+        StateTable next = new StateTable(layout.words(), bytes);
+        long[] state = new long[layout.words()];
+        long[] child = new long[layout.words()];
+
+        for (int slot = 0; slot < around.slots(); slot++) {
+            int count = around.count(slot);
+            if (count == 0) {
+                continue;
+            }
+            around.state(slot, state);
+            for (int move = 0; move < moves; move++) {
+                layout.twist(move, state, child);
+                if (!next.add(child, count)) {
+                    full = true;
+                    return;
+                }
+            }
+        }
+
+        around = next;
+        distance++;
+    }
+
+    /**
+     * Computes the solved cube with the colors of a given cube: the fixed
+     * corner gives the colors of its sides, see Pieces.sideOfColor.
+     */
+    private long[] solvedCube(Cube cube) {
+        long[] words = new long[layout.words()];
+        cube.packTo(words);
+
+        byte[] stickers = new byte[Cube.SIDES * size * size];
+        for (int i = 0; i < stickers.length; i++) {
+            stickers[i] = PackedLayout.get(words, i);
+        }
+        byte[] sideOfColor = Pieces.forSize(size).sideOfColor(stickers);
+        if (sideOfColor == null) {
+            throw new Error("cube not consistent!");
+        }
+
+        byte[] colorOfSide = new byte[Cube.SIDES];
+        for (byte color = 0; color < Cube.SIDES; color++) {
+            colorOfSide[sideOfColor[color]] = color;
+        }
+        for (int i = 0; i < stickers.length; i++) {
+            stickers[i] = colorOfSide[i / (size * size)];
+        }
+        layout.pack(stickers, words);
+        return words;
+    }
+
+    /**
+     * Checks if a cube can still be solved within its bound, according to
+     * the heuristic.
+     */
+    private boolean withinBound(Cube cube) {
+        return heuristic == null
+                || cube.getTwists() + cube.lowerBound(heuristic) <= cube
+                        .getBound();
+    }
+}
@@ -1,5 +1,12 @@
 package rubiks.sequential;
 
+import java.io.File;
+import java.io.IOException;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.Metrics;
+import rubiks.cube.TranspositionTable;
+
 /**
  * ConcurrentSolver for rubik's cube puzzle.
  *
@@ -11,58 +18,64 @@ public class Rubiks {
     public static final boolean PRINT_SOLUTION = true;
 
     /**
-     * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
+     * Solves a Rubik's cube by iteratively searching for solutions with a
+     * greater depth. This guarantees the optimal solution is found. Repeats all
+     * work for the previous iteration each iteration though...
      *
      * @param cube
-     *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
-     * @return the number of solutions found
+     *            the cube to solve
+     * @param heuristic
+     *            heuristic to prune the search with, or null
+     * @param transpositions
+     *            table to reuse subtree counts from, or null
+     * @param metrics
+     *            metrics to add the statistics and time of every bound to
      */
-    private static int solutions(Cube cube, CubeCache cache) {
-        if (cube.isSolved()) {
-            return 1;
-        }
-
-        if (cube.getTwists() >= cube.getBound()) {
-            return 0;
-        }
+    private static void solve(Cube cube, Heuristic heuristic,
+            TranspositionTable transpositions, Metrics metrics) {
+        // search state is allocated once, and reused for every bound. Doing
+        // new Cube() for every move overloads the garbage collector
+        Search search = new Search(cube.getSize(), PRINT_SOLUTION);
+        search.setHeuristic(heuristic);
+        search.setTranspositionTable(transpositions);
+        int bound = 0;
+        int result = 0;
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        System.out.print("Bound now:");
 
-        int result = 0;
+        while (result == 0) {
+            bound++;
+            cube.setBound(bound);
 
-        for (Cube child : children) {
-            // recursion step
-            int childSolutions = solutions(child, cache);
-            if (childSolutions > 0) {
-                result += childSolutions;
-                if (PRINT_SOLUTION) {
-                    child.print(System.err);
-                }
-            }
-            // put child object in cache
-            cache.put(child);
+            System.out.print(" " + bound);
+            long start = System.nanoTime();
+            result = search.solutions(cube);
+            metrics.add(search.takeStatistics());
+            metrics.boundDone(bound, System.nanoTime() - start);
         }
 
-        return result;
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
     }
 
     /**
-     * Solves a Rubik's cube by iteratively searching for solutions with a
-     * greater depth. This guarantees the optimal solution is found. Repeats all
-     * work for the previous iteration each iteration though...
+     * Solves a Rubik's cube like solve(), but counts the solutions of each
+     * bound with a meet in the middle search. Gives the same output.
      *
      * @param cube
      *            the cube to solve
+     * @param heuristic
+     *            heuristic to prune the search with, or null
+     * @param bytes
+     *            maximum memory used for the cubes around the solved cube
+     * @param metrics
+     *            metrics to add the statistics and time of every bound to
      */
-    private static void solve(Cube cube) {
-        // cache used for cube objects. Doing new Cube() for every move
-        // overloads the garbage collector
-        CubeCache cache = new CubeCache(cube.getSize());
+    private static void solveMeetInTheMiddle(Cube cube, Heuristic heuristic,
+            long bytes, Metrics metrics) {
+        MeetInTheMiddle search = new MeetInTheMiddle(cube.getSize(), bytes);
+        search.setHeuristic(heuristic);
         int bound = 0;
         int result = 0;
 
@@ -73,7 +86,10 @@ public class Rubiks {
             cube.setBound(bound);
 
             System.out.print(" " + bound);
-            result = solutions(cube, cache);
+            long start = System.nanoTime();
+            result = search.solutions(cube);
+            metrics.add(search.takeStatistics());
+            metrics.boundDone(bound, System.nanoTime() - start);
         }
 
         System.out.println();
@@ -102,6 +118,22 @@ public class Rubiks {
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--packed\t\tStore cubes packed in longs (3 bits per element), a fraction of the memory but a slower search");
+        System.out
+                .println("--count-misplaced\t\tKeep a count of misplaced stickers in every cube, for a constant time solved check");
+        System.out
+                .println("--pdb DIR\t\tPrune the search with the pattern databases in DIR, generated there if missing (see PatternDatabaseGenerator)");
+        System.out
+                .println("--tt MEGABYTES\t\tReuse subtree solution counts from a transposition table of at most MEGABYTES");
+        System.out
+                .println("--tt-policy POLICY\t\tReplacement policy of the transposition table, depth or always (default: depth)");
+        System.out
+                .println("--mitm MEGABYTES\t\tCount solutions with a meet in the middle search, storing the cubes around the solved cube in at most MEGABYTES");
+        System.out
+                .println("--metrics FILE\t\tExport search metrics to FILE, as CSV if it ends in .csv, JSON otherwise");
+        System.out
+                .println("--metrics-interval SECONDS\t\tAlso export the metrics every SECONDS while solving");
         System.out.println("");
     }
 
@@ -119,9 +151,23 @@ public class Rubiks {
         int twists = 11;
         int seed = 0;
         String fileName = null;
+        String pdbDirectory = null;
+
+        // size of the transposition table, 0 to search without one
+        int transpositionMegabytes = 0;
+        TranspositionTable.Policy transpositionPolicy = TranspositionTable.Policy.DEPTH;
+
+        // memory of the meet in the middle search, 0 to use Search
+        int meetInTheMiddleMegabytes = 0;
+
+        // file to export metrics to, and seconds between exports (0 to only
+        // export at the end)
+        String metricsFile = null;
+        int metricsInterval = 0;
 
         // number of threads used to solve puzzle
-        // (not used in sequential version)
+        // (only 1 supported in sequential version, see rubiks.parallel)
+        int threads = 1;
 
         for (int i = 0; i < arguments.length; i++) {
             if (arguments[i].equalsIgnoreCase("--size")) {
@@ -133,9 +179,35 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--seed")) {
                 i++;
                 seed = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--pdb")) {
+                i++;
+                pdbDirectory = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--tt")) {
+                i++;
+                transpositionMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--tt-policy")) {
+                i++;
+                transpositionPolicy = TranspositionTable.Policy
+                        .valueOf(arguments[i].toUpperCase());
+            } else if (arguments[i].equalsIgnoreCase("--mitm")) {
+                i++;
+                meetInTheMiddleMegabytes = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--metrics")) {
+                i++;
+                metricsFile = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--metrics-interval")) {
+                i++;
+                metricsInterval = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--packed")) {
+                Cube.setPacked(true);
+            } else if (arguments[i].equalsIgnoreCase("--count-misplaced")) {
+                Cube.setCountMisplaced(true);
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -146,6 +218,12 @@ public class Rubiks {
             }
         }
 
+        if (threads != 1) {
+            System.err.println("sequential version only supports 1 thread,"
+                    + " use rubiks.parallel.Rubiks for more");
+            System.exit(1);
+        }
+
         // create cube
         if (fileName == null) {
             cube = new Cube(size, twists, seed);
@@ -158,6 +236,24 @@ public class Rubiks {
             }
         }
 
+        // load pattern databases
+        Heuristic heuristic = null;
+        if (pdbDirectory != null) {
+            try {
+                heuristic = Heuristic.load(new File(pdbDirectory), cube
+                        .getSize());
+            } catch (IOException e) {
+                System.err.println("Cannot load pattern databases: " + e);
+                System.exit(1);
+            }
+        }
+
+        TranspositionTable transpositions = null;
+        if (transpositionMegabytes > 0) {
+            transpositions = new TranspositionTable(
+                    transpositionMegabytes * 1024L * 1024L, transpositionPolicy);
+        }
+
         // print cube info
         System.out.println("Searching for solution for cube of size "
                 + cube.getSize() + ", twists = " + twists + ", seed = " + seed);
@@ -165,16 +261,35 @@ public class Rubiks {
         System.out.flush();
 
 
+        Metrics metrics = new Metrics();
+        if (metricsFile != null && metricsInterval > 0) {
+            metrics.exportEvery(new File(metricsFile), metricsInterval * 1000L);
+        }
+
         // solve
         long start = System.currentTimeMillis();
-        solve(cube);
+        if (meetInTheMiddleMegabytes > 0) {
+            solveMeetInTheMiddle(cube, heuristic,
+                    meetInTheMiddleMegabytes * 1024L * 1024L, metrics);
+        } else {
+            solve(cube, heuristic, transpositions, metrics);
+        }
         long end = System.currentTimeMillis();
+        metrics.stop();
 
         // NOTE: this is printed to standard error! The rest of the output is
         // constant for each set of parameters. Printing this to standard error
         // makes the output of standard out comparable with "diff"
         System.err.println("Solving cube took " + (end - start)
                 + " milliseconds");
+        metrics.print(System.err);
+        if (metricsFile != null) {
+            try {
+                metrics.export(new File(metricsFile));
+            } catch (IOException e) {
+                System.err.println("Cannot export metrics: " + e);
+            }
+        }
 
     }
 
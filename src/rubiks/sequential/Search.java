@@ -0,0 +1,299 @@
+package rubiks.sequential;
+
+import rubiks.cube.Heuristic;
+import rubiks.cube.MoveTable;
+import rubiks.cube.SearchStatistics;
+import rubiks.cube.TranspositionTable;
+
+/**
+ * Depth first search for solutions of a cube, without recursion and without
+ * creating objects while searching. Instead of generating all children of a
+ * cube at every node, one cube per depth level is allocated up front, and a
+ * child is created by twisting its parent straight into the cube of the next
+ * level. Going back up the tree is free, as the parent is still there.
+ *
+ * Moves which make the sequence of twists redundant are skipped (see
+ * MoveTable.next), and every remaining sequence is counted with the number of
+ * sequences it stands for, so the number of solutions found at the first
+ * bound with solutions is the same as when trying every move.
+ *
+ * If a heuristic is set, a cube is only searched if its number of twists plus
+ * the lower bound of the heuristic is within the bound. As the heuristic never
+ * overestimates, no solutions are lost.
+ *
+ * If a transposition table is set, the solution count of every subtree with
+ * at least MIN_TRANSPOSITION_DEPTH twists left is stored in it, and a cube
+ * reached again with the same sequence state and twists left is counted from
+ * the table instead of searched again. Only subtrees below a move starting a
+ * new run are stored (see MoveTable.startsRun), their count is the weight of
+ * the sequence times a whole number, so the counts stay exact.
+ *
+ * Every search counts the cubes it generates, and why it did not search
+ * below them, in local variables added to its statistics when it returns
+ * (see takeStatistics()).
+ *
+ * A search object is not thread safe, use one per thread.
+ *
+ */
+public class Search {
+
+    /**
+     * Minimum number of twists left for a subtree to be looked up in the
+     * transposition table. Smaller subtrees are cheaper to search again than
+     * to hash.
+     */
+    public static final int MIN_TRANSPOSITION_DEPTH = 3;
+
+    private final boolean printSolutions;
+
+    private final MoveTable table;
+
+    private final int moves;
+
+    private Heuristic heuristic = null;
+
+    private TranspositionTable transpositions = null;
+
+    private final SearchStatistics statistics = new SearchStatistics();
+
+    // state per depth level: the cube, next move to try, solutions so far,
+    // sequence state (see MoveTable.next) and weight of the sequence
+    private Cube[] cubes = new Cube[0];
+
+    private int[] nextMove = new int[0];
+
+    private int[] found = new int[0];
+
+    private int[] sequence = new int[0];
+
+    private int[] weight = new int[0];
+
+    // key of the subtree of each level in the transposition table, 0 if it
+    // is not stored
+    private long[] key = new long[0];
+
+    /**
+     * Creates a new search for cubes of the given size.
+     *
+     * @param size
+     *            size of the cubes searched
+     * @param printSolutions
+     *            if true, each cube on the path to a solution is printed to
+     *            standard error
+     */
+    public Search(int size, boolean printSolutions) {
+        this.printSolutions = printSolutions;
+        this.table = MoveTable.forSize(size);
+        this.moves = table.moves();
+    }
+
+    /**
+     * Sets the heuristic used to prune the search.
+     *
+     * @param heuristic
+     *            lower bound for cubes searched, null to search without one
+     */
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Sets the table subtree counts are stored in and looked up from. A table
+     * can be shared by searches in different threads, as long as they use
+     * the same heuristic (or none). Solutions counted from the table are not
+     * printed.
+     *
+     * @param transpositions
+     *            table to use, null to search without one
+     */
+    public void setTranspositionTable(TranspositionTable transpositions) {
+        this.transpositions = transpositions;
+    }
+
+    /**
+     * Statistics of the searches done since the previous call, from the
+     * thread searching.
+     *
+     * @return the statistics
+     */
+    public SearchStatistics takeStatistics() {
+        return statistics.take();
+    }
+
+    /**
+     * Finds the number of solutions for a given cube. Only searches to the
+     * bound set in the cube object. Like the recursive version, every sequence
+     * of twists ending in a solved cube within the bound is counted, as long
+     * as no solutions exist for a lower bound.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube) {
+        return solutions(cube, MoveTable.START, 1);
+    }
+
+    /**
+     * Finds the number of solutions below a cube which is itself reached by a
+     * sequence of twists, used to search part of the tree on its own. Moves
+     * made redundant by the sequence are skipped, and the solutions found are
+     * counted with the weight of the sequence, so the sum over all parts is
+     * the same as searching from the root.
+     *
+     * @param cube
+     *            cube to solve
+     * @param startSequence
+     *            state of the sequence leading to the cube, see MoveTable.next
+     * @param startWeight
+     *            weight of the sequence leading to the cube, see
+     *            MoveTable.weight
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube, int startSequence, int startWeight) {
+        // the cube itself was counted as a node by whoever twisted it
+        if (cube.isSolved()) {
+            statistics.add(0, 1, 0, 0);
+            return startWeight;
+        }
+
+        if (cube.getTwists() >= cube.getBound()) {
+            statistics.add(0, 1, 0, 0);
+            return 0;
+        }
+        if (!withinBound(cube)) {
+            statistics.add(0, 0, 1, 0);
+            return 0;
+        }
+
+        ensureDepth(cube.getBound() - cube.getTwists() + 1, cube);
+
+        cube.copyTo(cubes[0]);
+        updateZobrist(cubes[0]);
+        nextMove[0] = 0;
+        found[0] = 0;
+        sequence[0] = startSequence;
+        weight[0] = startWeight;
+        key[0] = 0;
+        int depth = 0;
+
+        long nodes = 0;
+        long leaves = 0;
+        long pruned = 0;
+        long hits = 0;
+
+        while (true) {
+            if (nextMove[depth] == moves) {
+                // all children of this level done, go back up
+                if (depth == 0) {
+                    statistics.add(nodes, leaves, pruned, hits);
+                    return found[0];
+                }
+                int solutions = found[depth];
+                if (solutions > 0 && printSolutions) {
+                    cubes[depth].print(System.err);
+                }
+                if (key[depth] != 0) {
+                    Cube level = cubes[depth];
+                    transpositions.put(key[depth], level.getBound()
+                            - level.getTwists(), solutions / weight[depth]);
+                }
+                depth--;
+                found[depth] += solutions;
+                continue;
+            }
+
+            int move = nextMove[depth]++;
+            int childSequence = table.next(sequence[depth], move);
+            if (childSequence < 0) {
+                // redundant move
+                continue;
+            }
+
+            Cube child = cubes[depth + 1];
+            cubes[depth].twist(move, child);
+            int childWeight = MoveTable.weight(weight[depth], childSequence);
+            nodes++;
+
+            if (child.isSolved()) {
+                leaves++;
+                found[depth] += childWeight;
+                if (printSolutions) {
+                    child.print(System.err);
+                }
+            } else if (child.getTwists() >= child.getBound()) {
+                leaves++;
+            } else if (!withinBound(child)) {
+                pruned++;
+            } else {
+                long childKey = 0;
+                int left = child.getBound() - child.getTwists();
+                if (transpositions != null && left >= MIN_TRANSPOSITION_DEPTH
+                        && MoveTable.startsRun(childSequence)) {
+                    childKey = TranspositionTable.key(child.zobrist(),
+                            childSequence, left);
+                    int count = transpositions.get(childKey);
+                    if (count != TranspositionTable.MISS) {
+                        hits++;
+                        found[depth] += childWeight * count;
+                        continue;
+                    }
+                }
+
+                // go down one level
+                depth++;
+                nextMove[depth] = 0;
+                found[depth] = 0;
+                sequence[depth] = childSequence;
+                weight[depth] = childWeight;
+                key[depth] = childKey;
+                updateZobrist(child);
+            }
+        }
+    }
+
+    /**
+     * Keeps the Zobrist hash of a cube up to date only if its children are
+     * looked up in the transposition table. The children then get their hash
+     * from the twist, from the moved stickers only. Most cubes of the search
+     * are too close to the bound to be looked up, they skip the hashing.
+     */
+    private void updateZobrist(Cube cube) {
+        if (transpositions != null
+                && cube.getBound() - cube.getTwists() > MIN_TRANSPOSITION_DEPTH) {
+            cube.zobrist();
+        } else {
+            cube.dropZobrist();
+        }
+    }
+
+    /**
+     * Checks if a cube can still be solved within its bound, according to
+     * the heuristic.
+     */
+    private boolean withinBound(Cube cube) {
+        return heuristic == null
+                || cube.getTwists() + cube.lowerBound(heuristic) <= cube
+                        .getBound();
+    }
+
+    /**
+     * Makes sure there is a cube for each level of the search. Only allocates
+     * when the bound increases.
+     */
+    private void ensureDepth(int levels, Cube cube) {
+        if (cubes.length >= levels && cubes[0].isPacked() == cube.isPacked()) {
+            return;
+        }
+
+        cubes = new Cube[levels];
+        for (int i = 0; i < levels; i++) {
+            cubes[i] = new Cube(cube);
+        }
+        nextMove = new int[levels];
+        found = new int[levels];
+        sequence = new int[levels];
+        weight = new int[levels];
+        key = new long[levels];
+    }
+}